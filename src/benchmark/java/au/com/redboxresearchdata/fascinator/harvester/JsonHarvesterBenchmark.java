@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.harvester;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import au.com.redboxresearchdata.fascinator.testing.InMemoryIndexer;
+import au.com.redboxresearchdata.fascinator.testing.InMemoryStorage;
+import au.com.redboxresearchdata.fascinator.testing.SyntheticRecords;
+
+import com.googlecode.fascinator.api.storage.DigitalObject;
+import com.googlecode.fascinator.common.JsonObject;
+import com.googlecode.fascinator.common.JsonSimple;
+
+/**
+ * Benchmarks of the per-item paths of the JSON harvesters, against in-memory storage and indexer.
+ *
+ * Run with:
+ *
+ * <pre>
+ * mvn -P benchmark test-compile exec:exec -Djmh.args="JsonHarvesterBenchmark"
+ * </pre>
+ *
+ * @author Shilo Banihit
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonHarvesterBenchmark {
+
+	private static final String TYPE = "BenchmarkJson";
+
+	/** Number of fields in each record */
+	@Param({ "10", "100" })
+	public int fields;
+
+	/** Number of attachments of each record */
+	@Param({ "2" })
+	public int attachments;
+
+	private BaseJsonHarvester baseHarvester;
+
+	private GenericJsonHarvester genericHarvester;
+
+	private JsonSimple record;
+
+	private JsonObject recordData;
+
+	private JsonObject recordMeta;
+
+	private String existingText;
+
+	private HarvestContext context;
+
+	private DigitalObject object;
+
+	@Setup
+	public void setUp() throws Exception {
+		InMemoryStorage storage = new InMemoryStorage();
+		InMemoryIndexer indexer = new InMemoryIndexer();
+		JsonSimple harvestConfig = new JsonSimple("{\"harvester\":{\"idField\":\"ID\",\"recordIDPrefix\":\"benchmark/\","
+				+ "\"handlingType\":\"overwrite\",\"mainPayloadId\":\"metadata.json\"}}");
+
+		baseHarvester = new BaseJsonHarvester("BenchmarkJson", "Benchmark JSON harvester") {
+			@Override
+			protected boolean isValidJson(HarvestContext context, JsonSimple json) {
+				return json.getString(null, context.getIdField()) != null;
+			}
+		};
+		genericHarvester = new GenericJsonHarvester();
+		for (BaseJsonHarvester harvester : new BaseJsonHarvester[] { baseHarvester, genericHarvester }) {
+			harvester.setStorage(storage.getStorage());
+			harvester.setIndexer(indexer.getIndexer());
+			harvester.setHarvestConfig(harvestConfig);
+			harvester.idField = "ID";
+			harvester.idPrefix = "benchmark/";
+			harvester.handlingType = BaseJsonHarvester.HANDLING_TYPE_OVERWRITE;
+			harvester.mainPayloadId = "metadata.json";
+		}
+
+		SyntheticRecords records = new SyntheticRecords(fields, 32, attachments, 42);
+		record = new JsonSimple(records.record("1"));
+		recordData = record.getJsonObject();
+		recordMeta = new JsonObject();
+		recordMeta.put("dc.identifier", "benchmark/1");
+
+		// the payload merged into, as stored by an earlier harvest of the record
+		JsonSimple existing = new JsonSimple();
+		existing.writeObject("data").putAll(new SyntheticRecords(fields, 32, 0, 7).record("1"));
+		existing.writeObject("metadata").putAll(recordMeta);
+		existingText = existing.toString(true);
+
+		context = baseHarvester.createHarvestContext(records.harvestData(1, 1, null, null), TYPE, "benchmark");
+		object = storage.getStorage().createObject(baseHarvester.getOid(context, record));
+	}
+
+	/**
+	 * Harvest request of a number of records.
+	 */
+	@State(Scope.Benchmark)
+	public static class Request {
+
+		/** Number of records in the harvest request */
+		@Param({ "1", "100", "1000" })
+		public int items;
+
+		private JsonSimple harvestData;
+
+		@Setup
+		public void setUp(JsonHarvesterBenchmark benchmark) {
+			harvestData = new SyntheticRecords(benchmark.fields, 32, benchmark.attachments, 42).harvestData(1, items, null, null);
+		}
+	}
+
+	@Benchmark
+	public HarvestContext buildHarvestList(Request request) throws Exception {
+		HarvestContext requestContext = baseHarvester.createHarvestContext(request.harvestData, TYPE, "benchmark");
+		baseHarvester.buildHarvestList(requestContext);
+		return requestContext;
+	}
+
+	@Benchmark
+	public String getOid() {
+		return baseHarvester.getOid(context, record);
+	}
+
+	@Benchmark
+	public long streamMergedJsonBase() throws Exception {
+		return drain(baseHarvester.streamMergedJson(recordData, recordMeta, new JsonSimple(existingText), "benchmark/"));
+	}
+
+	@Benchmark
+	public long streamMergedJsonGeneric() throws Exception {
+		return drain(genericHarvester.streamMergedJson(recordData, recordMeta, new JsonSimple(existingText), "benchmark/"));
+	}
+
+	@Benchmark
+	public DigitalObject addAttachments() throws Exception {
+		baseHarvester.addAttachments(context, object.getId(), object, record, BaseJsonHarvester.HANDLING_TYPE_OVERWRITE);
+		return object;
+	}
+
+	/**
+	 * Reads the stream to the end, as storage would.
+	 *
+	 * @param in
+	 * @return number of bytes read
+	 * @throws IOException
+	 */
+	static long drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[8192];
+		long total = 0;
+		try {
+			for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+				total += read;
+			}
+		} finally {
+			in.close();
+		}
+		return total;
+	}
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.harvester;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import au.com.redboxresearchdata.fascinator.testing.InMemoryStorage;
+import au.com.redboxresearchdata.fascinator.testing.SyntheticRecords;
+
+import com.googlecode.fascinator.common.JsonSimple;
+
+/**
+ * Benchmark of the extraction of the per-request settings by the Mint harvester, i.e. the search of the incoming
+ * data for the rules config, id prefix and id field, and the lookup of the cached rules.
+ *
+ * Run with:
+ *
+ * <pre>
+ * mvn -P benchmark test-compile exec:exec -Djmh.args="MintJsonHarvesterBenchmark"
+ * </pre>
+ *
+ * @author Shilo Banihit
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MintJsonHarvesterBenchmark {
+
+	/** Number of records in the harvest request */
+	@Param({ "1", "100", "1000" })
+	public int items;
+
+	/** Number of fields in each record */
+	@Param({ "10", "100" })
+	public int fields;
+
+	private MintJsonHarvester harvester;
+
+	private JsonSimple harvestData;
+
+	private File rulesDir;
+
+	@Setup
+	public void setUp() throws Exception {
+		rulesDir = new File(System.getProperty("java.io.tmpdir"), "mint-benchmark-" + System.nanoTime());
+		File rulesConfig = new File(rulesDir, "Parties_People.json");
+		FileUtils.writeStringToFile(rulesConfig, "{\"indexer\":{\"script\":{\"rules\":\"Parties_People.py\"}}}", "UTF-8");
+		FileUtils.writeStringToFile(new File(rulesDir, "Parties_People.py"), "# rules", "UTF-8");
+
+		harvester = new MintJsonHarvester();
+		harvester.setStorage(new InMemoryStorage().getStorage());
+		harvester.setHarvestConfig(new JsonSimple("{\"harvester\":{\"rulesConfig\":\"" + rulesConfig.getAbsolutePath().replace("\\", "/")
+				+ "\",\"recordIDPrefix\":\"redbox-mint.example.edu.au/parties/people/\"}}"));
+		harvestData = new SyntheticRecords(fields, 32, 0, 42).harvestData(1, items, "rulesConfig", "Parties_People");
+		// loads the rules into the cache
+		harvester.createHarvestContext(harvestData, "Parties_People", "benchmark");
+	}
+
+	@TearDown
+	public void tearDown() {
+		FileUtils.deleteQuietly(rulesDir);
+	}
+
+	@Benchmark
+	public HarvestContext createHarvestContext() throws Exception {
+		return harvester.createHarvestContext(harvestData, "Parties_People", "benchmark");
+	}
+}
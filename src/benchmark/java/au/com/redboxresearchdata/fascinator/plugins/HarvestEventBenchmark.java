@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.plugins;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import au.com.redboxresearchdata.fascinator.harvester.HarvestItem;
+import au.com.redboxresearchdata.fascinator.harvester.HarvestRequest;
+
+import com.googlecode.fascinator.common.JsonObject;
+import com.googlecode.fascinator.common.JsonSimple;
+
+/**
+ * Benchmark of the creation of the per-item harvest events, and their serialisation as sent.
+ *
+ * Run with:
+ *
+ * <pre>
+ * mvn -P benchmark test-compile exec:exec -Djmh.args="HarvestEventBenchmark"
+ * </pre>
+ *
+ * @author Shilo Banihit
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HarvestEventBenchmark {
+
+	private static final String EVENT = "proc_harvested";
+
+	private JsonHarvestQueueConsumer consumer;
+
+	private HarvestItem item;
+
+	private HarvestRequest request;
+
+	@Setup
+	public void setUp() {
+		consumer = new JsonHarvestQueueConsumer();
+		item = new HarvestItem("0123456789abcdef0123456789abcdef", null, true, true, true);
+		item.setHid("6d0f1f4c-3c4e-4a8e-9d3b-6f3c2b1a0e9d");
+		item.setHrid("benchmark");
+		item.setHandledAs("overwrite");
+		request = new HarvestRequest("benchmark", "benchmark-harvester", "localhost", "127.0.0.1", System.currentTimeMillis());
+		request.setType("BenchmarkJson");
+	}
+
+	@Benchmark
+	public JsonObject createEventJson() {
+		return consumer.createEventJson(item, EVENT, request);
+	}
+
+	@Benchmark
+	public String createEventText() {
+		return new JsonSimple(consumer.createEventJson(item, EVENT, request)).toString();
+	}
+}
@@ -21,16 +21,29 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
 import org.json.simple.JSONArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -99,6 +112,12 @@ import com.googlecode.fascinator.common.storage.StorageUtils;
  * 
  * Sub-classes classes need to perform document validation.
  * 
+ * The harvester holds no per-request state: each call to harvest() works on its own HarvestContext, 
+ * so a single instance can process several requests concurrently.
+ * 
+ * Setting "harvester.parallelism" above 1 in the harvest config processes the items of a request 
+ * on a pool of that many threads. Items are still returned in their original order.
+ * 
  * @author Shilo Banihit
  * 
  */
@@ -112,6 +131,15 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 						  	   HANDLING_TYPE_PARK = "park",
 						       HANDLING_TYPE_IGNORE_IF_EXISTS = "ignore_if_exists";
 	
+	/** Handling outcome of a document identical to the one last stored, see "harvester.changeDetection" */
+	public static final String HANDLING_TYPE_UNCHANGED = "unchanged";
+	
+	/** Changed path of the whole document: stored for the first time, or overwriting an object pending render */
+	protected static final String ROOT_PATH = "";
+	
+	/** Object metadata property holding the content hash of the last stored document */
+	public static final String CONTENT_HASH_PROPERTY = "contentHash";
+	
 	/** Commands */
 	public static final String COMMAND_DELETE = "delete",
 							   COMMAND_HARVEST = "harvest",
@@ -119,8 +147,11 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 
 	/** Default payload ID */
 	protected static final String DEFAULT_PAYLOAD_ID = "harvestClient.json";
+	
+	/** Default number of threads processing the items of a request */
+	protected static final int DEFAULT_PARALLELISM = 1;
 
-	protected String id, name, type;
+	protected String id, name;
 
 	/** Storage instance that the Harvester will use to manage objects */
 	protected Storage storage;
@@ -128,26 +159,6 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 	/** Indexer*/
     protected Indexer indexer;
 
-	/** JSON object to harvest - should be nulled after a successful harvest **/
-	private JsonSimple data;
-
-	/**
-	 * List of objects to harvest. Will be cleared as soon as a new harvest is
-	 * requested
-	 **/
-	protected List<HarvestItem> harvestList;
-
-	/**
-	 * List of successfully harvested objects, cleared as soon as a new harvest is requested.
-	 */
-	protected List<String> successOidList;
-
-	/** The entire harvest list, cleared as soon as a new harvest is requested */
-	protected List<HarvestItem> itemList;
-	
-	/** The identifier of the harvest request, cleared as soon as a new harvest is requested. */
-	protected String harvestRequestId;
-
 	/** Messaging services */
 	protected MessagingServices messaging;
 
@@ -180,6 +191,30 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 	
 	/** Error message */
 	protected String errorMessage;
+	
+	/** Number of threads processing the items of a request */
+	protected int parallelism = DEFAULT_PARALLELISM;
+	
+	/** Processes items in parallel, null when items are processed sequentially */
+	protected ExecutorService itemExecutor;
+	
+	/** 
+	 * Serializes processing of items with the same OID, across requests and item threads. Shared by the instances of 
+	 * the harvest type through setOidLock(), so it outlives config reloads.
+	 */
+	protected volatile StripedOidLock oidLock = new StripedOidLock();
+	
+	/** Pipeline metrics */
+	protected HarvestMetrics metrics = HarvestMetrics.getInstance();
+	
+	/** Whether payloads and attachments are stored as compact JSON, instead of indented */
+	protected boolean compactJson;
+	
+	/** Whether documents identical to the one last stored are skipped */
+	protected boolean changeDetection;
+	
+	/** Object ids in storage, shared by the harvesters of the storage. Null until used, or if disabled. */
+	protected volatile ObjectIdIndex objectIndex;
 		
 	public BaseJsonHarvester(String id, String name) {
 		super(id, name);		
@@ -203,32 +238,72 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 			throw new HarvesterException(e);
 		}
 		setUpRules();
+		setUpHarvestSettings();
+	}
+	
+	/**
+	 * Applies the "harvester" settings that do not depend on the rules: the item executor, the object id index, 
+	 * "compactJson" and "changeDetection". Sub-classes overriding init() should call this once the harvest config is loaded.
+	 */
+	protected void setUpHarvestSettings() {
+		setUpItemExecutor();
+		setUpObjectIndex();
+		compactJson = harvestConfig.getBoolean(false, "harvester", "compactJson");
+		changeDetection = harvestConfig.getBoolean(false, "harvester", "changeDetection");
+	}
+	
+	/**
+	 * Creates the thread pool for processing items if "harvester.parallelism" is greater than 1.
+	 */
+	protected void setUpItemExecutor() {
+		parallelism = harvestConfig.getInteger(DEFAULT_PARALLELISM, "harvester", "parallelism");
+		if (itemExecutor != null) {
+			itemExecutor.shutdown();
+			itemExecutor = null;
+		}
+		if (parallelism > 1) {
+			log.info("Processing items using " + parallelism + " threads.");
+			final String threadPrefix = getId() + "-item-";
+			itemExecutor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, threadPrefix + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Loads the object id index in the background if enabled, objects are looked up in storage until it is loaded.
+	 */
+	protected void setUpObjectIndex() {
+		ObjectIdIndex index = getObjectIndex();
+		if (index != null) {
+			index.warmInBackground();
+		}
+	}
+	
+	@Override
+	public void shutdown() throws PluginException {
+		if (itemExecutor != null) {
+			itemExecutor.shutdown();
+		}
+		if (objectIndex != null) {
+			objectIndex.saveSnapshot();
+		}
+		super.shutdown();
 	}
 	
 	protected void setUpRules() throws HarvesterException {
 		try {
 			String rulesConfigFilePath = harvestConfig.getString(null, "harvester", "rulesConfig");
 			log.debug("Initialising Harvester, using config path:" + rulesConfigFilePath);
-			rulesConfigFile = new File(rulesConfigFilePath);
-			if (!rulesConfigFile.exists()) {
-				errorMessage = "Rules config file not found: " + rulesConfigFilePath;
-				throw new Exception(errorMessage);				
-			}
-			rulesConfig = new JsonSimple(rulesConfigFile);			
-			String rulesFilePath = rulesConfig.getString("", "indexer", "script", "rules");
-			log.debug("Initialising Harvester, checking if rulesFilePath exists:" + rulesFilePath);
-			rulesFile = new File(rulesFilePath);
-			if (!rulesFile.exists()) {
-				// try again this time appending the base directory of the rules config path						
-				rulesFilePath = FilenameUtils.getFullPath(rulesConfigFilePath) + rulesFilePath;
-				log.debug("Initialising Harvester, nope wasn't there, trying if this exists:" + rulesFilePath);
-				rulesFile = new File(rulesFilePath);
-				if (!rulesFile.exists()) {
-					errorMessage = "Rules file not found '"+rulesFilePath+"', please check the set up..."; 				
-					throw new Exception(errorMessage);
-				}
-			}
-			log.info("Using rules file path:" + rulesFilePath);
+			HarvestContext defaults = new HarvestContext(null, null, null);
+			loadRules(defaults, rulesConfigFilePath);
+			rulesConfig = defaults.getRulesConfig();
 			handlingType = harvestConfig.getString(HANDLING_TYPE_OVERWRITE,  "harvester", "handlingType");
 			idField = harvestConfig.getString("", "harvester", "idField");
 			if (idField == null) {
@@ -244,8 +319,8 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 			}
 			mainPayloadId = harvestConfig.getString(DEFAULT_PAYLOAD_ID,
 					"harvester", "mainPayloadId");
-			rulesConfigObject = updateHarvestFile(rulesConfigFile);
-			rulesObject = updateHarvestFile(rulesFile);			
+			rulesConfigObject = defaults.getRulesConfigObject();
+			rulesObject = defaults.getRulesObject();
 		} catch (Exception e) {
 			log.error(errorMessage);
 			throw new HarvesterException(e);
@@ -253,6 +328,54 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 		isReady = true;
 	}
 	
+	/**
+	 * Loads the rules config and rules file into the context, updating the copies in storage if required.
+	 * 
+	 * @param context
+	 * @param rulesConfigFilePath
+	 * @return the rules file, as resolved by resolveRulesFile()
+	 * @throws Exception if the files are missing or invalid
+	 */
+	protected File loadRules(HarvestContext context, String rulesConfigFilePath) throws Exception {
+		File rulesConfigFile = new File(rulesConfigFilePath);
+		if (!rulesConfigFile.exists()) {
+			errorMessage = "Rules config file not found: " + rulesConfigFilePath;
+			throw new Exception(errorMessage);				
+		}
+		JsonSimple rulesConfig = new JsonSimple(rulesConfigFile);			
+		File rulesFile = resolveRulesFile(rulesConfigFilePath, rulesConfig);
+		context.setRulesConfig(rulesConfig);
+		context.setRulesConfigObject(updateHarvestFile(rulesConfigFile));
+		context.setRulesObject(updateHarvestFile(rulesFile));
+		return rulesFile;
+	}
+	
+	/**
+	 * Finds the rules file specified in the rules config, either as is or relative to the rules config directory.
+	 * 
+	 * @param rulesConfigFilePath
+	 * @param rulesConfig
+	 * @return the rules file
+	 * @throws Exception if the rules file does not exist
+	 */
+	protected File resolveRulesFile(String rulesConfigFilePath, JsonSimple rulesConfig) throws Exception {
+		String rulesFilePath = rulesConfig.getString("", "indexer", "script", "rules");
+		log.debug("Initialising Harvester, checking if rulesFilePath exists:" + rulesFilePath);
+		File rulesFile = new File(rulesFilePath);
+		if (!rulesFile.exists()) {
+			// try again this time appending the base directory of the rules config path						
+			rulesFilePath = FilenameUtils.getFullPath(rulesConfigFilePath) + rulesFilePath;
+			log.debug("Initialising Harvester, nope wasn't there, trying if this exists:" + rulesFilePath);
+			rulesFile = new File(rulesFilePath);
+			if (!rulesFile.exists()) {
+				errorMessage = "Rules file not found '"+rulesFilePath+"', please check the set up..."; 				
+				throw new Exception(errorMessage);
+			}
+		}
+		log.info("Using rules file path:" + rulesFilePath);
+		return rulesFile;
+	}
+	
 	@Override
 	public void init(File configFile) throws PluginException {
 		this.configFile = configFile;
@@ -272,47 +395,168 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 	/**
 	 * Convenience method to start the harvest of objects.
 	 * 
-	 * @param sourceJsonStr
-	 *            - JSON string to harvest - see the class comments for the
+	 * @param data
+	 *            - JSON to harvest - see the class comments for the
 	 *            basic structure
-	 * @return List of Object Ids.
+	 * @param type
+	 * @param requestId 
+	 * @return the context of the request, holding the harvested and failed items.
 	 * @throws HarvesterException
 	 */
-	public List<HarvestItem> harvest(JsonSimple data, String type, String requestId)
+	public HarvestContext harvest(JsonSimple data, String type, String requestId)
 			throws HarvesterException {		
-		this.data = data;
-		this.type = type;
-		this.harvestRequestId = requestId;
-		return processHarvestList();
-	}
-
-	public List<HarvestItem> processHarvestList() throws HarvesterException {
-		if (data != null) {
-			buildHarvestList();
-			for (HarvestItem item : harvestList) {
-				processJson(item);
-				successOidList.add(item.getOid());
+		HarvestContext context = createHarvestContext(data, type, requestId);
+		processHarvestList(context);
+		return context;
+	}
+	
+	/**
+	 * Creates the context of a harvest request, using the settings loaded on init.
+	 * 
+	 * Sub-classes that vary the settings per request should override this method. 
+	 * 
+	 * @param data
+	 * @param type
+	 * @param requestId
+	 * @return new harvest context
+	 * @throws HarvesterException
+	 */
+	protected HarvestContext createHarvestContext(JsonSimple data, String type, String requestId) throws HarvesterException {
+		HarvestContext context = new HarvestContext(data, type, requestId);
+		context.setIdField(idField);
+		context.setIdPrefix(idPrefix);
+		context.setMainPayloadId(mainPayloadId);
+		context.setHandlingType(handlingType);
+		context.setRulesConfig(rulesConfig);
+		context.setRulesObject(rulesObject);
+		context.setRulesConfigObject(rulesConfigObject);
+		return context;
+	}
+
+	public List<HarvestItem> processHarvestList(HarvestContext context) throws HarvesterException {
+		if (context.getData() != null) {
+			buildHarvestList(context);
+			if (itemExecutor != null && context.getHarvestList().size() > 1) {
+				processHarvestListInParallel(context);
+			} else {
+				for (HarvestItem item : context.getHarvestList()) {
+					processJsonInOrder(context, item);
+					context.getSuccessOidList().add(item.getOid());
+				}
 			}
 		}
-		return harvestList;
+		return context.getHarvestList();
+	}
+	
+	/**
+	 * Processes the items of the harvest list on the item executor, waiting for all to complete.
+	 * 
+	 * Items sharing an OID are processed one after the other in their original order, e.g. a harvest followed by a delete. 
+	 * Successful OIDs are added in the original order. As with sequential processing, the successful OIDs stop at 
+	 * the first item that failed and its exception is re-thrown, although later items with other OIDs may have been processed.
+	 * 
+	 * @param context
+	 * @throws HarvesterException
+	 */
+	protected void processHarvestListInParallel(final HarvestContext context) throws HarvesterException {
+		List<HarvestItem> harvestList = context.getHarvestList();
+		List<String> oids = new ArrayList<String>(harvestList.size());
+		Map<String, List<HarvestItem>> oidGroups = new LinkedHashMap<String, List<HarvestItem>>();
+		for (HarvestItem item : harvestList) {
+			String oid = getOid(context, (JsonSimple) item.getData());
+			oids.add(oid);
+			List<HarvestItem> group = oidGroups.get(oid);
+			if (group == null) {
+				group = new ArrayList<HarvestItem>();
+				oidGroups.put(oid, group);
+			}
+			group.add(item);
+		}
+		final Map<HarvestItem, Exception> failures = new ConcurrentHashMap<HarvestItem, Exception>();
+		Map<String, Future<Void>> results = new HashMap<String, Future<Void>>();
+		for (Map.Entry<String, List<HarvestItem>> entry : oidGroups.entrySet()) {
+			final List<HarvestItem> group = entry.getValue();
+			Callable<Void> task = new Callable<Void>() {
+				public Void call() {
+					for (HarvestItem item : group) {
+						try {
+							processJsonInOrder(context, item);
+						} catch (Exception e) {
+							// later commands on this OID depend on this one, skip them
+							failures.put(item, e);
+							break;
+						}
+					}
+					return null;
+				}
+			};
+			try {
+				results.put(entry.getKey(), itemExecutor.submit(task));
+			} catch (RejectedExecutionException e) {
+				// the executor was shut down, e.g. the harvester is being replaced, finish the request on this thread
+				FutureTask<Void> inline = new FutureTask<Void>(task);
+				inline.run();
+				results.put(entry.getKey(), inline);
+			}
+		}
+		HarvesterException failure = null;
+		for (int i = 0; i < harvestList.size(); i++) {
+			HarvestItem item = harvestList.get(i);
+			try {
+				results.get(oids.get(i)).get();
+			} catch (ExecutionException e) {
+				failures.put(item, new HarvesterException(e.getCause()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (Future<Void> pending : results.values()) {
+					pending.cancel(true);
+				}
+				throw new HarvesterException("Interrupted while processing harvest list.", e);
+			}
+			Exception itemFailure = failures.get(item);
+			if (failure == null && itemFailure != null) {
+				failure = itemFailure instanceof HarvesterException ? (HarvesterException) itemFailure : new HarvesterException(itemFailure);
+			}
+			if (failure == null) {
+				context.getSuccessOidList().add(item.getOid());
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+	
+	/**
+	 * Processes the item while holding the lock of its OID, so commands on the same object never overlap.
+	 * 
+	 * The lock excludes, it does not order: items of different requests on the same OID are applied in the order
+	 * they acquire the lock, not the order the requests were sent.
+	 * 
+	 * @param context
+	 * @param item
+	 * @throws HarvesterException
+	 */
+	protected void processJsonInOrder(HarvestContext context, HarvestItem item) throws HarvesterException {
+		String oid = getOid(context, (JsonSimple) item.getData());
+		oidLock.lock(oid);
+		try {
+			processJson(context, item);
+		} finally {
+			oidLock.unlock(oid);
+		}
 	}
 
 	/**
 	 * Gets a list of digital object IDs successfully harvested.
 	 * 
-	 * If there are no objects, this method should return an empty list, not
-	 * null.
+	 * Results are kept per request in the HarvestContext returned by harvest(), so this always returns an empty set. 
 	 * 
-	 * @return a list of object IDs, possibly empty
+	 * @return an empty set
 	 * @throws HarvesterException
 	 *             if there was an error retrieving the objects
 	 */
 	public Set<String> getObjectIdList() throws HarvesterException {
-		HashSet<String> oidSet = new HashSet<String>();
-		if (data != null && successOidList != null) {
-			oidSet.addAll(successOidList);
-		}
-		return oidSet;
+		return new HashSet<String>();
 	}
 
 	/**
@@ -320,20 +564,18 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 	 * expect more fields than what's outlined as 'basic'.
 	 * 
 	 */
-	public void buildHarvestList() throws HarvesterException {
-		harvestList = new ArrayList<HarvestItem>();
-		itemList = new ArrayList<HarvestItem>();
-		successOidList = new ArrayList<String>();
+	public void buildHarvestList(HarvestContext context) throws HarvesterException {
+		JsonSimple data = context.getData();
 		JSONArray dataArray = data.getArray("data");
 		if (dataArray == null) {
 			log.debug("Data is not an array.");
 			JsonSimple jsonObj = new JsonSimple(data.getObject("data"));
 			log.debug("Data is: " + jsonObj.toString(true));
-			addToHarvestList(jsonObj, harvestRequestId);
+			addToHarvestList(context, jsonObj);
 		} else {
 			log.debug("Data is an array");
 			for (JsonSimple jsonObj : JsonSimple.toJavaList(dataArray)) {
-				addToHarvestList(jsonObj, harvestRequestId);
+				addToHarvestList(context, jsonObj);
 			}
 		}
 	}
@@ -341,31 +583,83 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 	/**
 	 * Validates the JSON document before adding to the harvest list.
 	 * 
+	 * @param context
 	 * @param jsonObj
 	 */
-	protected void addToHarvestList(JsonSimple jsonObj, String harvestRequestId) {
+	protected void addToHarvestList(HarvestContext context, JsonSimple jsonObj) {
+		HarvestItem item = createHarvestItem(context, jsonObj);
+		context.getItemList().add(item);
+		if (item.isValid()) {
+			context.getHarvestList().add(item);
+		}
+	}
+	
+	/**
+	 * Creates the harvest item of the JSON document, marking it invalid if it fails validation.
+	 * 
+	 * @param context
+	 * @param jsonObj
+	 * @return the harvest item
+	 */
+	protected HarvestItem createHarvestItem(HarvestContext context, JsonSimple jsonObj) {
 		HarvestItem item = new HarvestItem("", jsonObj, false, true, false);
 		item.setHid(getHarvestItemId(jsonObj));
-		item.setHrid(harvestRequestId);
-		itemList.add(item);
+		item.setHrid(context.getHarvestRequestId());
 		// validation is deferred to sub-classes
-		if (isValidJson(jsonObj)) {
-			harvestList.add(item);
-		} else {
+		long start = metrics.start();
+		boolean valid = isValidJson(context, jsonObj);
+		metrics.record(context.getType(), HarvestMetrics.STAGE_VALIDATE, start);
+		if (!valid) {
 			item.setValid(false);
 		}
+		return item;
+	}
+	
+	/**
+	 * Starts a harvest where items are handed over one at a time through harvestItem(), e.g. while a large message is being read.
+	 * 
+	 * @param data - the harvest data, "data.data" holding at least the first item
+	 * @param type
+	 * @param requestId
+	 * @return the context of the request, its item lists are not used
+	 * @throws HarvesterException
+	 */
+	public HarvestContext beginHarvest(JsonSimple data, String type, String requestId) throws HarvesterException {
+		return createHarvestContext(data, type, requestId);
+	}
+	
+	/**
+	 * Validates and processes a single item of a harvest started with beginHarvest(). 
+	 * 
+	 * The item is not added to the lists of the context. An item that fails to process is logged and returned as not harvested.
+	 * 
+	 * @param context
+	 * @param jsonObj
+	 * @return the harvest item
+	 */
+	public HarvestItem harvestItem(HarvestContext context, JsonSimple jsonObj) {
+		HarvestItem item = createHarvestItem(context, jsonObj);
+		if (item.isValid()) {
+			try {
+				processJsonInOrder(context, item);
+			} catch (HarvesterException e) {
+				log.error("Failed to harvest item, hid:" + item.getHid(), e);
+			}
+		}
+		return item;
 	}
 
 	/**
 	 * Generic implementation is an MD5 hash of the type, id prefix and the id
 	 * field, in that order.
 	 * 
+	 * @param context
 	 * @param jsonData
 	 * @return Object ID string
 	 */
-	protected String getOid(JsonSimple jsonData) {
-		return DigestUtils.md5Hex(type + ":" + idPrefix
-				+ jsonData.getString("", idField));
+	protected String getOid(HarvestContext context, JsonSimple jsonData) {
+		return DigestUtils.md5Hex(context.getType() + ":" + context.getIdPrefix()
+				+ jsonData.getString("", context.getIdField()));
 	}
 
 	/**
@@ -381,31 +675,33 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 	/**
 	 * Performs validation of JSON.
 	 * 
+	 * @param context
 	 * @param json
 	 * @return true if JSON is valid
 	 */
-	protected abstract boolean isValidJson(JsonSimple json);
+	protected abstract boolean isValidJson(HarvestContext context, JsonSimple json);
 
 	/**
 	 *  Processes JSON.
 	 * 
 	 *  Checks the 'command' field. Defaults to 'harvest' which is creating the DigitalObject, create attachments, etc.
 	 * 
+	 * @param context - Harvest Context
 	 * @param item - Harvest Item	  
 	 * @throws HarvesterException
 	 */
-	protected void processJson(HarvestItem item) throws HarvesterException {
+	protected void processJson(HarvestContext context, HarvestItem item) throws HarvesterException {
 		JsonSimple jsonData = (JsonSimple) item.getData();
-		String oid = getOid(jsonData);
+		String oid = getOid(context, jsonData);
 		// check the command
 		String command = jsonData.getString(null, "command");
 		if (command == null || COMMAND_HARVEST.equalsIgnoreCase(command)) {
-			doHarvest(jsonData, oid, item);
+			doHarvest(context, jsonData, oid, item);
 		} else {
 			if (COMMAND_DELETE.equalsIgnoreCase(command)) {
-				doDelete(jsonData, oid, item);
+				doDelete(context, jsonData, oid, item);
 			} else if (COMMAND_ATTACH.equalsIgnoreCase(command)) {
-				doAttach(jsonData, oid, item);
+				doAttach(context, jsonData, oid, item);
 			}
 		}		
 	}
@@ -413,43 +709,66 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 	/**
 	 * Harvests the incoming JSON document.
 	 * 
+	 * @param context
 	 * @param jsonData
 	 * @param oid
 	 * @param item
 	 * @throws HarvesterException
 	 */
-	protected void doHarvest(JsonSimple jsonData, String oid, HarvestItem item) throws HarvesterException {
+	protected void doHarvest(HarvestContext context, JsonSimple jsonData, String oid, HarvestItem item) throws HarvesterException {
 		// create metadata
 		JsonObject meta = new JsonObject();
-		meta.put("dc.identifier", idPrefix + jsonData.getString(null, idField));
-		String handledAs = storeJsonInObject(
-				jsonData, meta, oid, getPayloadId(mainPayloadId, oid), idPrefix);
+		meta.put("dc.identifier", context.getIdPrefix() + jsonData.getString(null, context.getIdField()));
+		List<String> indexedPaths = getIndexedPaths(context);
+		Set<String> changedPaths = indexedPaths == null ? null : new HashSet<String>();
+		long start = metrics.start();
+		String handledAs;
+		try {
+			handledAs = storeJsonInObject(context,
+					jsonData, meta, oid, getPayloadId(context.getMainPayloadId(), oid), changedPaths);
+		} catch (HarvesterException e) {
+			metrics.recordFailure(context.getType(), HarvestMetrics.STAGE_STORE, start);
+			throw e;
+		}
+		metrics.record(context.getType(), HarvestMetrics.STAGE_STORE, start);
 		item.setOid(oid);
 		item.setHandledAs(handledAs);
+		if (HANDLING_TYPE_UNCHANGED.equals(handledAs)) {
+			// nothing stored, nothing to transform
+			item.setHarvested(true);
+			return;
+		}
 		if (HANDLING_TYPE_OVERWRITE.equalsIgnoreCase(handledAs)) {
-			item.setShouldBeTransformed(true);									
+			item.setShouldBeTransformed(isTransformRequired(context, changedPaths));
+			if (!item.isShouldBeTransformed()) {
+				log.debug("No indexed fields changed, not transforming, oid:" + oid);
+			}
 		} 
 		item.setHarvested(true);
+		start = metrics.start();
 		try {
-			setObjectMetadata(oid, jsonData, meta, handledAs);
+			setObjectMetadata(context, oid, jsonData, meta, handledAs);
 		} catch (StorageException e) {
+			metrics.recordFailure(context.getType(), HarvestMetrics.STAGE_METADATA, start);
 			throw new HarvesterException(e);
 		}
+		metrics.record(context.getType(), HarvestMetrics.STAGE_METADATA, start);
 	}
 	
 	/**
 	 * Deletes the object specified by the oid, also deletes all attachments outside of storage as specified in the original harvest request (i.e. mainPayloadId)
 	 * 
+	 * @param context
 	 * @param jsonData
 	 * @param oid
 	 * @param item
 	 * @throws HarvesterException
 	 */
-	protected void doDelete(JsonSimple jsonData, String oid, HarvestItem item) throws HarvesterException {
+	protected void doDelete(HarvestContext context, JsonSimple jsonData, String oid, HarvestItem item) throws HarvesterException {
 		try {
 			DigitalObject object = storage.getObject(oid);
 			// delete the attachments specified in the original harvest request outside of storage, i.e. starts with "$"
-			Payload payload = object.getPayload(getPayloadId(mainPayloadId, oid));
+			Payload payload = object.getPayload(getPayloadId(context.getMainPayloadId(), oid));
 			JsonSimple origHarvestRequest = new JsonSimple(payload.open());
 			JSONArray attachmentListArray = origHarvestRequest.getArray("attachmentList");
 			if (attachmentListArray != null) {
@@ -474,6 +793,9 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 				indexer.remove(oid, pid);
 			}
 			storage.removeObject(oid);
+			if (getObjectIndex() != null) {
+				objectIndex.remove(oid);
+			}
 			item.setOid(oid);
 			item.setHarvested(true);
 		} catch (Exception e) {
@@ -484,15 +806,16 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 	/**
 	 * Attaches the data specified in the JSON document and triggers the transformation.
 	 * 
+	 * @param context
 	 * @param jsonData
 	 * @param oid
 	 * @param item
 	 * @throws HarvesterException
 	 */
-	protected void doAttach(JsonSimple jsonData, String oid, HarvestItem item) throws HarvesterException {
+	protected void doAttach(HarvestContext context, JsonSimple jsonData, String oid, HarvestItem item) throws HarvesterException {
 		try {
 			DigitalObject object = storage.getObject(oid);
-			addAttachments(oid, object, jsonData, HANDLING_TYPE_OVERWRITE);
+			addAttachments(context, oid, object, jsonData, HANDLING_TYPE_OVERWRITE);
 			item.setHarvested(true);
 			item.setShouldBeTransformed(true); 
 			item.setOid(oid);
@@ -501,6 +824,27 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 		}		
 	}
 	
+	/**
+	 * Adds the attachments of the document, recording the stage's metrics.
+	 * 
+	 * @param context
+	 * @param oid
+	 * @param object
+	 * @param jsonData
+	 * @param handledAs
+	 * @throws HarvesterException
+	 */
+	protected void addAttachments(HarvestContext context, String oid, DigitalObject object, JsonSimple jsonData, String handledAs) throws HarvesterException {
+		long start = metrics.start();
+		try {
+			addAttachments(oid, object, jsonData, handledAs);
+		} catch (HarvesterException e) {
+			metrics.recordFailure(context.getType(), HarvestMetrics.STAGE_ATTACHMENTS, start);
+			throw e;
+		}
+		metrics.record(context.getType(), HarvestMetrics.STAGE_ATTACHMENTS, start);
+	}
+	
 	/**
 	 * Returns the payload id, replacing all references to "<oid>" with the object's oid.
 	 * 
@@ -516,8 +860,11 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 	 * Sets the object's metadata. 
 	 * 
 	 */	
-	protected void setObjectMetadata(String oid, JsonSimple dataJson, JsonObject meta, String handledAs)
+	protected void setObjectMetadata(HarvestContext context, String oid, JsonSimple dataJson, JsonObject meta, String handledAs)
 			throws HarvesterException, StorageException {
+		JsonSimple rulesConfig = context.getRulesConfig();
+		DigitalObject rulesObject = context.getRulesObject();
+		DigitalObject rulesConfigObject = context.getRulesConfigObject();
 		// get the object
 		DigitalObject object = storage.getObject(oid);
 
@@ -582,10 +929,12 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 	/**
 	 * Tests whether there are more objects to retrieve.
 	 * 
-	 * @return true if there are more objects to retrieve, false otherwise
+	 * Objects are only harvested through harvest(), so there is nothing to retrieve.
+	 * 
+	 * @return false
 	 */
 	public boolean hasMoreObjects() {
-		return data != null;
+		return false;
 	}
 
 	/**
@@ -614,14 +963,24 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 		// creating attachments...
 		JSONArray attachmentListArray = jsonData.getArray("attachmentList");
 		if (attachmentListArray != null) {
+			Set<String> payloadIds = getPayloadIds(object);
+			JsonPayloadBuffer buffer = new JsonPayloadBuffer();
 			for (Object attachmentDataObj : attachmentListArray) {
 				String attachmentDataName = attachmentDataObj.toString();
 				JsonObject attachmentData = jsonData.getObject(attachmentDataName);
 				JSONArray destinationFileNameArray = jsonData.getArray("attachmentDestination", attachmentDataName);
-				log.debug("attachmentData:");
-				log.debug(new JsonSimple(attachmentData).toString(true));
+				if (log.isDebugEnabled()) {
+					log.debug("attachmentData:");
+					log.debug(new JsonSimple(attachmentData).toString(true));
+				}
+				// encoded once for all destinations
+				try {
+					buffer.set(attachmentData, !compactJson);
+				} catch (IOException e) {
+					throw new HarvesterException(e);
+				}
 				for (Object destinationFileName : destinationFileNameArray) {
-					addAttachment(oid, object, destinationFileName.toString(), attachmentData, handledAs, jsonData);
+					addAttachment(oid, object, destinationFileName.toString(), buffer, handledAs, jsonData, payloadIds);
 				}
 			}
 		} else {
@@ -640,6 +999,29 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 	 * @throws HarvesterException
 	 */
 	protected void addAttachment(String oid, DigitalObject object, String filename, JsonObject contents, String handledAs, JsonSimple jsonData) throws HarvesterException {
+		JsonPayloadBuffer buffer = new JsonPayloadBuffer();
+		try {
+			buffer.set(contents, !compactJson);
+		} catch (IOException e) {
+			throw new HarvesterException(e);
+		}
+		addAttachment(oid, object, filename, buffer, handledAs, jsonData, getPayloadIds(object));
+	}
+	
+	/** 
+	 * Attach JSON payloads to the object, replaces <oid> references, resolves the variable maps.
+	 * 
+	 * @param oid
+	 * @param object
+	 * @param filename
+	 * @param contents - the encoded attachment
+	 * @param handledAs
+	 * @param jsonData
+	 * @param payloadIds - the object's payload ids from getPayloadIds(), updated as payloads are created
+	 * @throws HarvesterException
+	 */
+	protected void addAttachment(String oid, DigitalObject object, String filename, JsonPayloadBuffer contents, String handledAs, JsonSimple jsonData,
+			Set<String> payloadIds) throws HarvesterException {
 		try {
 			if (HANDLING_TYPE_PARK.equalsIgnoreCase(handledAs)) {
 				filename = filename + ".parked";
@@ -651,23 +1033,44 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 					log.debug("addAttachment::Invalid variable substitution, ignoring:" + filename);
 				} else {
 					// add a copy of the attachment...
-					FileUtils.writeStringToFile(new File(varfilename), new JsonSimple(contents).toString(true), "UTF-8");
+					contents.writeTo(new File(varfilename));
 				} 				
 			} else {
 				// an attachment
-				for (String pid : object.getPayloadIdList() ) {
-					if (pid.equalsIgnoreCase(filename)) {
-						object.updatePayload(filename, IOUtils.toInputStream(new JsonSimple(contents).toString(true), "UTF-8"));
-						return;
-					}
+				if (payloadIds.contains(getPayloadIdKey(filename))) {
+					object.updatePayload(filename, contents.newInputStream());
+				} else {
+					object.createStoredPayload(filename, contents.newInputStream());
+					payloadIds.add(getPayloadIdKey(filename));
 				}
-				object.createStoredPayload(filename, IOUtils.toInputStream(new JsonSimple(contents).toString(true), "UTF-8"));
 			}						
 		} catch (Exception e) {
 			throw new HarvesterException(e);
 		}
 	}
 	
+	/**
+	 * Returns the object's payload ids, for case insensitive lookups of getPayloadIdKey().
+	 * 
+	 * @param object
+	 * @return the set of payload id keys
+	 */
+	protected Set<String> getPayloadIds(DigitalObject object) {
+		Set<String> payloadIds = new HashSet<String>();
+		for (String pid : object.getPayloadIdList()) {
+			payloadIds.add(getPayloadIdKey(pid));
+		}
+		return payloadIds;
+	}
+	
+	/**
+	 * @param payloadId
+	 * @return the key of the payload id in the set of getPayloadIds()
+	 */
+	private static String getPayloadIdKey(String payloadId) {
+		return payloadId.toLowerCase(Locale.ENGLISH);
+	}
+	
 	/**
 	 * Resolves the variable value from the "varMap" field in the document.
 	 * 
@@ -687,26 +1090,62 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 	/**
 	 * Creates an object from the JSON document.
 	 * 
+	 * With "harvester.changeDetection", an existing object to overwrite is left as is if the document's content hash is 
+	 * the one last stored, and the object is not pending render, returning HANDLING_TYPE_UNCHANGED.
+	 * 
+	 * @param context
 	 * @param dataJson
 	 * @param metaJson
 	 * @param oid
 	 * @param payloadId
-	 * @param idPrefix
 	 * @return
 	 * @throws HarvesterException
 	 */
-	protected String storeJsonInObject(JsonSimple dataJson,
-			JsonObject metaJson, String oid, String payloadId, String idPrefix)
+	protected String storeJsonInObject(HarvestContext context, JsonSimple dataJson,
+			JsonObject metaJson, String oid, String payloadId)
+			throws HarvesterException {
+		return storeJsonInObject(context, dataJson, metaJson, oid, payloadId, null);
+	}
+	
+	/**
+	 * Creates an object from the JSON document, collecting the paths of the stored document's changed fields.
+	 * 
+	 * An overwritten object is only marked render-pending if it is to be transformed, see isTransformRequired(), 
+	 * otherwise its render-pending property is left as is. An object still pending render is always transformed, 
+	 * whatever changed, as its last render may never have happened.
+	 * 
+	 * @param context
+	 * @param dataJson
+	 * @param metaJson
+	 * @param oid
+	 * @param payloadId
+	 * @param changedPaths - the changed paths, see streamMergedJson(), null to not collect them
+	 * @return
+	 * @throws HarvesterException
+	 */
+	protected String storeJsonInObject(HarvestContext context, JsonSimple dataJson,
+			JsonObject metaJson, String oid, String payloadId, Set<String> changedPaths)
 			throws HarvesterException {
 		// Does the object already exist?
 		DigitalObject object = null;
 		String handledAs = null;
 		String renderPending = "true";
+		String handlingType = context.getHandlingType();
+		String idPrefix = context.getIdPrefix();
 		log.debug("Current handling type is:" + handlingType);
-		try {
-			object = storage.getObject(oid);
-			// no exception thrown, object exists, determine if we should
-			// overwrite...			
+		String contentHash = changeDetection ? getContentHash(dataJson) : null;
+		object = findObject(oid);
+		boolean created = false;
+		if (object == null) {
+			try {
+				object = createObject(oid);
+				created = true;
+			} catch (StorageException ex2) {
+				object = getUnindexedObject(oid, ex2);
+			}
+		}
+		if (!created) {
+			// object exists, determine if we should overwrite...
 			if (HANDLING_TYPE_PARK.equalsIgnoreCase(handlingType)) {
 				log.debug("Parking incoming JSON.");
 				handledAs = HANDLING_TYPE_PARK;
@@ -717,33 +1156,47 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 			} else {
 				log.debug("Overwriting with incoming JSON.");
 				if (HANDLING_TYPE_OVERWRITE.equalsIgnoreCase(handlingType)) {
+					if (isUnchanged(object, contentHash)) {
+						log.debug("Incoming JSON is unchanged, oid:" + oid);
+						try {
+							object.close();
+						} catch (StorageException e) {
+							throw new HarvesterException("Error closing digital object: ", e);
+						}
+						return HANDLING_TYPE_UNCHANGED;
+					}
+					boolean pending = isRenderPending(object);
 					// merge it, overwriting similar fields...
 					storeJsonInPayload(dataJson.getJsonObject(), metaJson, object, payloadId,
-							idPrefix);
+							idPrefix, changedPaths);
 					handledAs = HANDLING_TYPE_OVERWRITE;
+					if (pending && changedPaths != null) {
+						changedPaths.add(ROOT_PATH);
+					}
+					if (!isTransformRequired(context, changedPaths)) {
+						// not placed on the toolchain, so nothing will render it
+						renderPending = null;
+					}
 				} else {
 					handledAs = HANDLING_TYPE_IGNORE_IF_EXISTS;
 					renderPending = "false";
 				}
 			}
-		} catch (StorageException ex) {
-			// @TODO: Programming by exception, find a better way, perhaps add
-			// storage.objectExists()?
+		} else {
 			// This is going to be brand new object
 			log.debug("Brand new Object created with incoming JSON.");
-			try {
-				object = StorageUtils.getDigitalObject(storage, oid);
-				storeJsonInPayload(dataJson.getJsonObject(), metaJson, object, payloadId,
-						idPrefix);
-				handledAs = HANDLING_TYPE_OVERWRITE;
-			} catch (StorageException ex2) {
-				throw new HarvesterException(
-						"Error creating new digital object: ", ex2);
-			}
+			storeJsonInPayload(dataJson.getJsonObject(), metaJson, object, payloadId,
+					idPrefix, changedPaths);
+			handledAs = HANDLING_TYPE_OVERWRITE;
 		}				
 		try {
-			addAttachments(oid, object, dataJson, handledAs);
-			object.getMetadata().setProperty("render-pending", renderPending);
+			addAttachments(context, oid, object, dataJson, handledAs);
+			if (renderPending != null) {
+				object.getMetadata().setProperty("render-pending", renderPending);
+			}
+			if (contentHash != null && HANDLING_TYPE_OVERWRITE.equals(handledAs)) {
+				object.getMetadata().setProperty(CONTENT_HASH_PROPERTY, contentHash);
+			}
 			object.close();
 		} catch (StorageException e) {
 			throw new HarvesterException(
@@ -752,7 +1205,135 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 		return handledAs;
 	}
 	
+	/**
+	 * Returns the content hash of the document: the MD5 of its compact JSON with the keys of each object in order,
+	 * so documents differing only in key order or layout hash the same.
+	 * 
+	 * @param dataJson
+	 * @return the hash
+	 * @throws HarvesterException
+	 */
+	protected String getContentHash(JsonSimple dataJson) throws HarvesterException {
+		try {
+			return DigestUtils.md5Hex(new JsonInputStream(dataJson.getJsonObject(), false, true));
+		} catch (IOException e) {
+			throw new HarvesterException("Error hashing JSON data: ", e);
+		}
+	}
+	
+	/**
+	 * Returns whether the object holds the document of the content hash, and is not pending render, i.e. its last
+	 * harvest was transformed.
+	 * 
+	 * @param object
+	 * @param contentHash - null if change detection is off
+	 * @return true if the document need not be stored
+	 */
+	protected boolean isUnchanged(DigitalObject object, String contentHash) {
+		if (contentHash == null) {
+			return false;
+		}
+		try {
+			Properties props = object.getMetadata();
+			return contentHash.equals(props.getProperty(CONTENT_HASH_PROPERTY))
+					&& !"true".equals(props.getProperty("render-pending"));
+		} catch (StorageException e) {
+			log.warn("Failed to read object metadata, storing the document, oid:" + object.getId());
+			return false;
+		}
+	}
+	
+	/**
+	 * @param object
+	 * @return true if the object is marked render-pending, or its metadata cannot be read
+	 */
+	protected boolean isRenderPending(DigitalObject object) {
+		try {
+			return "true".equals(object.getMetadata().getProperty("render-pending"));
+		} catch (StorageException e) {
+			log.warn("Failed to read object metadata, transforming the object, oid:" + object.getId());
+			return true;
+		}
+	}
+	
+	/**
+	 * Returns the object if it exists. 
+	 * 
+	 * Objects missing from the object id index are taken to be new without looking them up in storage.
+	 * 
+	 * @param oid
+	 * @return the object, null if it does not exist
+	 */
+	protected DigitalObject findObject(String oid) {
+		ObjectIdIndex index = getObjectIndex();
+		if (index != null && !index.mayContain(oid)) {
+			return null;
+		}
+		try {
+			return storage.getObject(oid);
+		} catch (StorageException e) {
+			if (index != null) {
+				index.removeStale(oid);
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * Creates a new object, recording it in the object id index. 
+	 * 
+	 * @param oid
+	 * @return the object
+	 * @throws StorageException if the object could not be created, e.g. it already exists
+	 */
+	protected DigitalObject createObject(String oid) throws StorageException {
+		DigitalObject object = storage.createObject(oid);
+		ObjectIdIndex index = getObjectIndex();
+		if (index != null) {
+			index.add(oid);
+		}
+		return object;
+	}
+	
+	/**
+	 * Returns the object that findObject() did not find but could not be created, i.e. it was created outside 
+	 * the harvesters since the object id index was loaded, or concurrently. The object is recorded in the index.
+	 * 
+	 * @param oid
+	 * @param createFailure - the failure to create the object
+	 * @return the existing object
+	 * @throws HarvesterException if the object does not exist either
+	 */
+	protected DigitalObject getUnindexedObject(String oid, StorageException createFailure) throws HarvesterException {
+		DigitalObject object;
+		try {
+			object = storage.getObject(oid);
+		} catch (StorageException e) {
+			throw new HarvesterException("Error creating new digital object: ", createFailure);
+		}
+		log.debug("Object not indexed but exists, handling it as existing: " + oid);
+		ObjectIdIndex index = getObjectIndex();
+		if (index != null) {
+			index.add(oid);
+		}
+		return object;
+	}
 	
+	/**
+	 * Returns the object id index of the storage, unless disabled by "harvester.objectIndex".
+	 * See ObjectIdIndex.forStorage() for the settings of the index.
+	 * 
+	 * The index is enabled by default, so creating a new object does not first fail to get it from storage.
+	 * 
+	 * @return the index, null if disabled
+	 */
+	public ObjectIdIndex getObjectIndex() {
+		if (objectIndex == null && storage != null && harvestConfig != null
+				&& harvestConfig.getBoolean(true, "harvester", "objectIndex")) {
+			objectIndex = ObjectIdIndex.forStorage(storage, harvestConfig);
+		}
+		return objectIndex;
+	}
 
 	/**
 	 * Store the processed data and metadata in a payload
@@ -769,8 +1350,31 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 	protected void storeJsonInPayload(JsonObject dataJson, JsonObject metaJson,
 			DigitalObject object, String payloadId, String idPrefix)
 			throws HarvesterException {
+		storeJsonInPayload(dataJson, metaJson, object, payloadId, idPrefix, null);
+	}
+	
+	/**
+	 * Store the processed data and metadata in a payload, collecting the paths of the changed fields.
+	 * 
+	 * @param dataJson
+	 * @param metaJson
+	 * @param object
+	 * @param payloadId
+	 * @param idPrefix
+	 * @param changedPaths - the changed paths, see streamMergedJson(), null to not collect them
+	 * @throws HarvesterException
+	 *             if an error occurs
+	 */
+	protected void storeJsonInPayload(JsonObject dataJson, JsonObject metaJson,
+			DigitalObject object, String payloadId, String idPrefix, Set<String> changedPaths)
+			throws HarvesterException {
 		Payload payload = null;
 		JsonSimple json = new JsonSimple();
+		if (!object.getPayloadIdList().contains(payloadId)) {
+			// e.g. a new object, no need for a failing lookup
+			createJsonPayload(dataJson, metaJson, object, payloadId, idPrefix, json, changedPaths);
+			return;
+		}
 		try {
 			// New payloads
 			payload = object.getPayload(payloadId);
@@ -792,7 +1396,7 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 			// Update storage
 			try {
 				InputStream in = streamMergedJson(dataJson, metaJson, json,
-						idPrefix);
+						idPrefix, changedPaths);
 				object.updatePayload(payloadId, in);
 
 			} catch (IOException ex2) {
@@ -802,21 +1406,41 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 				throw new HarvesterException("Error updating payload: ", ex2);
 			}
 		} catch (StorageException ex) {
-			// Create a new Payload
-			try {
-				// log.debug("Creating new payload: '{}' => '{}'",
-				// object.getId(), payloadId);
-				InputStream in = streamMergedJson(dataJson, metaJson, json,
-						idPrefix);
-				payload = object.createStoredPayload(payloadId, in);
-
-			} catch (IOException ex2) {
-				throw new HarvesterException("Error parsing JSON encoding: ",
-						ex2);
-			} catch (StorageException ex2) {
-				throw new HarvesterException("Error creating new payload: ",
-						ex2);
-			}
+			createJsonPayload(dataJson, metaJson, object, payloadId, idPrefix, json, changedPaths);
+		}
+	}
+	
+	/**
+	 * Creates a new payload of the processed data and metadata.
+	 * 
+	 * @param dataJson
+	 * @param metaJson
+	 * @param object
+	 * @param payloadId
+	 * @param idPrefix
+	 * @param json - the new payload's JSON, merged into
+	 * @param changedPaths - set to the root path, the whole document being new, null to not collect them
+	 * @throws HarvesterException if an error occurs
+	 */
+	private void createJsonPayload(JsonObject dataJson, JsonObject metaJson,
+			DigitalObject object, String payloadId, String idPrefix, JsonSimple json, Set<String> changedPaths)
+			throws HarvesterException {
+		if (changedPaths != null) {
+			changedPaths.add(ROOT_PATH);
+		}
+		try {
+			// log.debug("Creating new payload: '{}' => '{}'",
+			// object.getId(), payloadId);
+			InputStream in = streamMergedJson(dataJson, metaJson, json,
+					idPrefix);
+			object.createStoredPayload(payloadId, in);
+
+		} catch (IOException ex2) {
+			throw new HarvesterException("Error parsing JSON encoding: ",
+					ex2);
+		} catch (StorageException ex2) {
+			throw new HarvesterException("Error creating new payload: ",
+					ex2);
 		}
 	}
 
@@ -836,16 +1460,132 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 	protected InputStream streamMergedJson(JsonObject dataJson,
 			JsonObject metaJson, JsonSimple existing, String idPrefix)
 			throws IOException {
+		return streamMergedJson(dataJson, metaJson, existing, idPrefix, null);
+	}
+	
+	/**
+	 * Merge the newly processed data with an (possible) existing data already
+	 * present, collecting the paths of the fields the merge changes, and convert the merge into a Stream for storage.
+	 * 
+	 * Paths are the keys of the data, and of nested objects joined with ".", e.g. "title" or "creator.name".
+	 * 
+	 * @param dataJson
+	 *            an instantiated JSON object containing data to store
+	 * @param metaJson
+	 *            an instantiated JSON object containing metadata to store
+	 * @param existing
+	 *            an instantiated JsonSimple object with any existing data
+	 * @param idPrefix
+	 * @param changedPaths
+	 *            the set the changed paths are added to, null to not collect them
+	 * @throws IOException
+	 *             if any character encoding issues effect the Stream
+	 */
+	protected InputStream streamMergedJson(JsonObject dataJson,
+			JsonObject metaJson, JsonSimple existing, String idPrefix, Set<String> changedPaths)
+			throws IOException {
 		// Overwrite and/or create only nodes we consider new data
 		existing.getJsonObject().put("recordIDPrefix", idPrefix);
 		JsonObject existingData = existing.writeObject("data");
+		if (changedPaths != null) {
+			collectChangedPaths("", existingData, dataJson, false, changedPaths);
+		}
 		existingData.putAll(dataJson);
 		JsonObject existingMeta = existing.writeObject("metadata");
 		existingMeta.putAll(metaJson);
 
 		// Turn into a stream to return
-		String jsonString = existing.toString(true);
-		return IOUtils.toInputStream(jsonString, "UTF-8");
+		return toJsonStream(existing);
+	}
+	
+	/**
+	 * Adds the paths of the incoming fields that differ from the existing ones. Nested objects are compared field by field. 
+	 * 
+	 * @param prefix - path of the objects, "" for the root
+	 * @param existing
+	 * @param incoming
+	 * @param replaced - true if the incoming object replaces the existing one, so existing fields missing from it are changed
+	 * @param changedPaths
+	 */
+	protected static void collectChangedPaths(String prefix, Map<?, ?> existing, Map<?, ?> incoming, boolean replaced, Set<String> changedPaths) {
+		for (Map.Entry<?, ?> entry : incoming.entrySet()) {
+			String path = prefix + entry.getKey();
+			Object before = existing.get(entry.getKey());
+			Object after = entry.getValue();
+			if (before instanceof Map && after instanceof Map) {
+				collectChangedPaths(path + ".", (Map<?, ?>) before, (Map<?, ?>) after, true, changedPaths);
+			} else if (!existing.containsKey(entry.getKey()) || (before == null ? after != null : !before.equals(after))) {
+				changedPaths.add(path);
+			}
+		}
+		if (replaced) {
+			for (Object key : existing.keySet()) {
+				if (!incoming.containsKey(key)) {
+					changedPaths.add(prefix + key);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the paths of the fields used in indexing, from the "indexer.indexedPaths" array of the rules config.
+	 * 
+	 * @param context
+	 * @return the paths, null if not configured, i.e. all fields are indexed
+	 */
+	protected List<String> getIndexedPaths(HarvestContext context) {
+		JsonSimple rulesConfig = context.getRulesConfig();
+		List<String> indexedPaths = rulesConfig == null ? null : rulesConfig.getStringList("indexer", "indexedPaths");
+		return indexedPaths == null || indexedPaths.isEmpty() ? null : indexedPaths;
+	}
+	
+	/**
+	 * Returns whether the overwritten object is to be transformed: always, unless the rules config lists "indexer.indexedPaths"
+	 * and none of these changed.
+	 * 
+	 * @param context
+	 * @param changedPaths - the changed paths, null if not collected
+	 * @return true if the object is to be placed on the toolchain
+	 */
+	protected boolean isTransformRequired(HarvestContext context, Set<String> changedPaths) {
+		return changedPaths == null || isIndexedChange(changedPaths, getIndexedPaths(context));
+	}
+	
+	/**
+	 * Returns whether any changed path is indexed: is the same as, within, or contains an indexed path. 
+	 * 
+	 * @param changedPaths
+	 * @param indexedPaths - null or empty if all fields are indexed
+	 * @return true if the object needs indexing
+	 */
+	protected boolean isIndexedChange(Set<String> changedPaths, List<String> indexedPaths) {
+		if (changedPaths.contains(ROOT_PATH)) {
+			return true;
+		}
+		if (indexedPaths == null || indexedPaths.isEmpty()) {
+			return !changedPaths.isEmpty();
+		}
+		for (String changedPath : changedPaths) {
+			for (String indexedPath : indexedPaths) {
+				if (changedPath.equals(indexedPath) || changedPath.startsWith(indexedPath + ".")
+						|| indexedPath.startsWith(changedPath + ".")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns a stream of the document to store, compact or indented as set by "harvester.compactJson".
+	 * 
+	 * The document is serialized as the stream is read, so is not to be modified until then.
+	 * 
+	 * @param json
+	 * @return the UTF-8 stream of the JSON text
+	 */
+	protected InputStream toJsonStream(JsonSimple json) {
+		return new JsonInputStream(json.getJsonObject(), !compactJson);
 	}
 
 	/**
@@ -887,22 +1627,6 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 		return object;
 	}
 
-	protected JsonSimple getData() {
-		return data;
-	}
-
-	protected void setData(JsonSimple data) {
-		this.data = data;
-	}
-
-	public List<String> getSuccessOidList() {
-		return successOidList;
-	}
-
-	public List<HarvestItem> getItemList() {
-		return itemList;
-	}
-
 	public boolean isShouldPark() {
 		return shouldPark;
 	}
@@ -966,4 +1690,17 @@ public abstract class BaseJsonHarvester extends GenericHarvester {
 	public void setIndexer(Indexer indexer) {
 		this.indexer = indexer;
 	}
+	
+	public StripedOidLock getOidLock() {
+		return oidLock;
+	}
+	
+	/**
+	 * Sets the OID lock, e.g. the one shared by every instance of the harvest type.
+	 * 
+	 * @param oidLock
+	 */
+	public void setOidLock(StripedOidLock oidLock) {
+		this.oidLock = oidLock;
+	}
 }
@@ -56,8 +56,8 @@ public class DatasetJsonHarvester extends GenericJsonHarvester {
 	 *  Ensures that JSON documents also have either an attachmentList or a command
 	 */
 	@Override
-	protected boolean isValidJson(JsonSimple json) {		
-		boolean isValid = super.isValidJson(json);
+	protected boolean isValidJson(HarvestContext context, JsonSimple json) {		
+		boolean isValid = super.isValidJson(context, json);
 		if (isValid) {
 			String command = json.getString(null, "command");
 			if (command == null) {
@@ -21,16 +21,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
+import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
 import org.json.simple.JSONArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.googlecode.fascinator.api.harvester.HarvesterException;
 import com.googlecode.fascinator.api.storage.DigitalObject;
+import com.googlecode.fascinator.api.storage.StorageException;
 import com.googlecode.fascinator.common.JsonObject;
 import com.googlecode.fascinator.common.JsonSimple;
 
@@ -64,11 +65,11 @@ public class GenericJsonHarvester extends BaseJsonHarvester {
 	/**
 	 * Ensures the incoming JSON has an none-empty ID and owner field.
 	 * 
-	 * @see au.com.redboxresearchdata.fascinator.harvester.BaseJsonHarvester#isValidJson(com.googlecode.fascinator.common.JsonSimple)
+	 * @see au.com.redboxresearchdata.fascinator.harvester.BaseJsonHarvester#isValidJson(au.com.redboxresearchdata.fascinator.harvester.HarvestContext, com.googlecode.fascinator.common.JsonSimple)
 	 */
 	@Override
-	protected boolean isValidJson(JsonSimple json) {
-		String idVal = json.getString(null, idField);
+	protected boolean isValidJson(HarvestContext context, JsonSimple json) {
+		String idVal = json.getString(null, context.getIdField());
 		boolean isValid = idVal != null && idVal.trim().length() > 0;
 		String owner = json.getString(harvestConfig.getString("guest",  "default-owner"), "owner");		
 		isValid = isValid && owner != null && owner.trim().length() > 0;		
@@ -91,29 +92,59 @@ public class GenericJsonHarvester extends BaseJsonHarvester {
 	 *            an instantiated JSON object containing metadata to store
 	 * @param existing
 	 *            an instantiated JsonSimple object with any existing data
+	 * @param idPrefix
+	 * @param changedPaths
+	 *            the set the changed paths are added to, null to not collect them
 	 * @throws IOException
 	 *             if any character encoding issues effect the Stream
 	 */
+	@Override
 	protected InputStream streamMergedJson(JsonObject dataJson,
-			JsonObject metaJson, JsonSimple existing, String idPrefix)
+			JsonObject metaJson, JsonSimple existing, String idPrefix, Set<String> changedPaths)
 			throws IOException {		
+		if (changedPaths != null) {
+			collectChangedPaths("", existing.getJsonObject(), dataJson, false, changedPaths);
+			// never in the main payload, see storeJsonInPayload()
+			changedPaths.remove("owner");
+		}
 		existing.getJsonObject().putAll(dataJson);
 		// remove the owner from the main payload		
 		existing.getJsonObject().remove("owner");
 		
 		// Turn into a stream to return
-		String jsonString = existing.toString(true);				
-		return IOUtils.toInputStream(jsonString, "UTF-8");
+		return toJsonStream(existing);
 	}
 		
 	/**
-	 * Sets render-pending, owner and saves custom object metadata properties. 
+	 * Stores the data in the main payload, the owner being compared to the object's owner property, as it is not stored in the payload.
+	 * 
+	 * @see au.com.redboxresearchdata.fascinator.harvester.BaseJsonHarvester#storeJsonInPayload(JsonObject, JsonObject, DigitalObject, String, String, Set)
+	 */
+	@Override
+	protected void storeJsonInPayload(JsonObject dataJson, JsonObject metaJson,
+			DigitalObject object, String payloadId, String idPrefix, Set<String> changedPaths)
+			throws HarvesterException {
+		super.storeJsonInPayload(dataJson, metaJson, object, payloadId, idPrefix, changedPaths);
+		if (changedPaths != null) {
+			String owner = new JsonSimple(dataJson).getString(harvestConfig.getString("guest",  "default-owner"), "owner");
+			try {
+				if (!owner.equals(object.getMetadata().getProperty("owner"))) {
+					changedPaths.add("owner");
+				}
+			} catch (StorageException e) {
+				changedPaths.add("owner");
+			}
+		}
+	}
+	
+	/**
+	 * Sets owner and saves custom object metadata properties. Render-pending is set by storeJsonInObject(), 
+	 * only if the object is to be transformed.
 	 * 
 	 */
 	@Override
 	protected void saveCustomObjectMetadata(String oid, DigitalObject object, Properties metadata, JsonSimple dataJson, String handledAs) throws HarvesterException {
 		if (HANDLING_TYPE_OVERWRITE.equalsIgnoreCase(handledAs)) {
-			metadata.setProperty("render-pending", "true");
 			metadata.setProperty("owner", dataJson.getString(harvestConfig.getString("guest",  "default-owner"), "owner")); // permissive
 			JSONArray customPropArray = dataJson.getArray(null, "customProperties");
 			if (customPropArray != null) {
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.harvester;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.googlecode.fascinator.api.storage.DigitalObject;
+import com.googlecode.fascinator.common.JsonSimple;
+
+/**
+ * State of a single harvest request.
+ *
+ * Created by the harvester for every call to harvest(), so one harvester instance can serve several requests at once.
+ * Holds the incoming data, the resulting item lists and the harvest settings in effect for the request.
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class HarvestContext {
+
+	/** JSON object to harvest */
+	private JsonSimple data;
+
+	/** The type of the harvest, i.e. the harvest config name */
+	private String type;
+
+	/** The identifier of the harvest request. */
+	private String harvestRequestId;
+
+	/** List of valid objects to harvest. */
+	private List<HarvestItem> harvestList;
+
+	/** List of successfully harvested objects. */
+	private List<String> successOidList;
+
+	/** The entire harvest list, including invalid items. */
+	private List<HarvestItem> itemList;
+
+	private String idField;
+
+	private String idPrefix;
+
+	private String mainPayloadId;
+
+	private String handlingType;
+
+	private JsonSimple rulesConfig;
+
+	private DigitalObject rulesObject;
+
+	private DigitalObject rulesConfigObject;
+
+	public HarvestContext(JsonSimple data, String type, String harvestRequestId) {
+		this.data = data;
+		this.type = type;
+		this.harvestRequestId = harvestRequestId;
+		harvestList = new ArrayList<HarvestItem>();
+		successOidList = new ArrayList<String>();
+		itemList = new ArrayList<HarvestItem>();
+	}
+
+	public JsonSimple getData() {
+		return data;
+	}
+
+	public void setData(JsonSimple data) {
+		this.data = data;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public String getHarvestRequestId() {
+		return harvestRequestId;
+	}
+
+	public void setHarvestRequestId(String harvestRequestId) {
+		this.harvestRequestId = harvestRequestId;
+	}
+
+	public List<HarvestItem> getHarvestList() {
+		return harvestList;
+	}
+
+	public void setHarvestList(List<HarvestItem> harvestList) {
+		this.harvestList = harvestList;
+	}
+
+	public List<String> getSuccessOidList() {
+		return successOidList;
+	}
+
+	public void setSuccessOidList(List<String> successOidList) {
+		this.successOidList = successOidList;
+	}
+
+	public List<HarvestItem> getItemList() {
+		return itemList;
+	}
+
+	public void setItemList(List<HarvestItem> itemList) {
+		this.itemList = itemList;
+	}
+
+	public String getIdField() {
+		return idField;
+	}
+
+	public void setIdField(String idField) {
+		this.idField = idField;
+	}
+
+	public String getIdPrefix() {
+		return idPrefix;
+	}
+
+	public void setIdPrefix(String idPrefix) {
+		this.idPrefix = idPrefix;
+	}
+
+	public String getMainPayloadId() {
+		return mainPayloadId;
+	}
+
+	public void setMainPayloadId(String mainPayloadId) {
+		this.mainPayloadId = mainPayloadId;
+	}
+
+	public String getHandlingType() {
+		return handlingType;
+	}
+
+	public void setHandlingType(String handlingType) {
+		this.handlingType = handlingType;
+	}
+
+	public JsonSimple getRulesConfig() {
+		return rulesConfig;
+	}
+
+	public void setRulesConfig(JsonSimple rulesConfig) {
+		this.rulesConfig = rulesConfig;
+	}
+
+	public DigitalObject getRulesObject() {
+		return rulesObject;
+	}
+
+	public void setRulesObject(DigitalObject rulesObject) {
+		this.rulesObject = rulesObject;
+	}
+
+	public DigitalObject getRulesConfigObject() {
+		return rulesConfigObject;
+	}
+
+	public void setRulesConfigObject(DigitalObject rulesConfigObject) {
+		this.rulesConfigObject = rulesConfigObject;
+	}
+}
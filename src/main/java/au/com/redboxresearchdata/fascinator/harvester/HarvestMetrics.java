@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.harvester;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import au.com.redboxresearchdata.fascinator.jmx.HarvestMetricsMXBean;
+
+import com.googlecode.fascinator.common.JsonObject;
+import com.googlecode.fascinator.common.JsonSimple;
+
+/**
+ * Latency and throughput of the harvest pipeline, per harvest type and stage.
+ *
+ * Each stage counts its calls, failures and total time, and keeps a histogram of latencies in fixed buckets.
+ * Recording is a handful of atomic increments, with no locking or allocation once a stage has been seen.
+ *
+ * Timings are recorded as:
+ *
+ * <pre>
+ * long start = metrics.start();
+ * ...
+ * metrics.record(type, STAGE_X, start);
+ * </pre>
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class HarvestMetrics implements HarvestMetricsMXBean {
+
+	/** Stages of the pipeline */
+	public static final String STAGE_PARSE = "parse",
+							   STAGE_VALIDATE = "isValidJson",
+							   STAGE_STORE = "storeJsonInObject",
+							   STAGE_ATTACHMENTS = "addAttachments",
+							   STAGE_METADATA = "setObjectMetadata",
+							   STAGE_QUEUE = "queueHarvest",
+							   STAGE_EVENT = "emitHarvestEvent",
+							   STAGE_REQUEST = "request";
+
+	/** Type of stages recorded before the type is known */
+	public static final String TYPE_ANY = "*";
+
+	/** Upper bounds of the histogram buckets, in microseconds, the last bucket is unbounded */
+	private static final long[] BUCKET_BOUNDS = { 100, 500, 1000, 5000, 10000, 50000, 100000, 500000, 1000000, 5000000, 10000000 };
+
+	private static final HarvestMetrics instance = new HarvestMetrics();
+
+	/** Stage metrics, keyed by type and stage */
+	private final ConcurrentMap<String, ConcurrentMap<String, StageMetrics>> types = new ConcurrentHashMap<String, ConcurrentMap<String, StageMetrics>>();
+
+	private volatile long since = System.currentTimeMillis();
+
+	/**
+	 * @return the metrics shared by the harvesters and the queue consumer
+	 */
+	public static HarvestMetrics getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @return the start time of a stage
+	 */
+	public long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records a completed stage.
+	 *
+	 * @param type - harvest type, null for TYPE_ANY
+	 * @param stage
+	 * @param start - from start()
+	 */
+	public void record(String type, String stage, long start) {
+		getStage(type, stage).record(System.nanoTime() - start, false);
+	}
+
+	/**
+	 * Records a failed stage.
+	 *
+	 * @param type - harvest type, null for TYPE_ANY
+	 * @param stage
+	 * @param start - from start()
+	 */
+	public void recordFailure(String type, String stage, long start) {
+		getStage(type, stage).record(System.nanoTime() - start, true);
+	}
+
+	/**
+	 * Records the end-to-end latency of a request, from when it was received.
+	 *
+	 * @param request
+	 */
+	public void recordRequest(HarvestRequest request) {
+		long millis = System.currentTimeMillis() - request.getReceived();
+		getStage(request.getType(), STAGE_REQUEST).record(TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis)), false);
+	}
+
+	public String getMetrics() {
+		JsonObject json = new JsonObject();
+		long elapsed = Math.max(1, System.currentTimeMillis() - since);
+		json.put("since", since);
+		JsonObject typesJson = new JsonObject();
+		for (Map.Entry<String, ConcurrentMap<String, StageMetrics>> type : new TreeMap<String, ConcurrentMap<String, StageMetrics>>(types).entrySet()) {
+			JsonObject stagesJson = new JsonObject();
+			for (Map.Entry<String, StageMetrics> stage : new TreeMap<String, StageMetrics>(type.getValue()).entrySet()) {
+				stagesJson.put(stage.getKey(), stage.getValue().toJson(elapsed));
+			}
+			typesJson.put(type.getKey(), stagesJson);
+		}
+		json.put("types", typesJson);
+		return new JsonSimple(json).toString();
+	}
+
+	public void resetMetrics() {
+		types.clear();
+		since = System.currentTimeMillis();
+	}
+
+	private StageMetrics getStage(String type, String stage) {
+		if (type == null) {
+			type = TYPE_ANY;
+		}
+		ConcurrentMap<String, StageMetrics> stages = types.get(type);
+		if (stages == null) {
+			ConcurrentMap<String, StageMetrics> created = new ConcurrentHashMap<String, StageMetrics>();
+			stages = types.putIfAbsent(type, created);
+			if (stages == null) {
+				stages = created;
+			}
+		}
+		StageMetrics metrics = stages.get(stage);
+		if (metrics == null) {
+			StageMetrics created = new StageMetrics();
+			metrics = stages.putIfAbsent(stage, created);
+			if (metrics == null) {
+				metrics = created;
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Counters and latency histogram of a stage.
+	 */
+	private static class StageMetrics {
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+		void record(long nanos, boolean failed) {
+			count.incrementAndGet();
+			if (failed) {
+				failures.incrementAndGet();
+			}
+			totalNanos.addAndGet(nanos);
+			long max = maxNanos.get();
+			while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+				max = maxNanos.get();
+			}
+			buckets.incrementAndGet(bucketOf(nanos / 1000));
+		}
+
+		private static int bucketOf(long micros) {
+			for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+				if (micros <= BUCKET_BOUNDS[i]) {
+					return i;
+				}
+			}
+			return BUCKET_BOUNDS.length;
+		}
+
+		/**
+		 * @param quantile - between 0 and 1
+		 * @return the upper bound in milliseconds of the bucket holding the quantile, -1 if in the unbounded bucket
+		 */
+		private double quantileMillis(long[] counts, long total, double quantile) {
+			long target = (long) Math.ceil(total * quantile);
+			long seen = 0;
+			for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+				seen += counts[i];
+				if (seen >= target) {
+					return BUCKET_BOUNDS[i] / 1000.0;
+				}
+			}
+			return -1;
+		}
+
+		JsonObject toJson(long elapsedMillis) {
+			long[] counts = new long[buckets.length()];
+			long total = 0;
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = buckets.get(i);
+				total += counts[i];
+			}
+			JsonObject json = new JsonObject();
+			json.put("count", count.get());
+			json.put("failures", failures.get());
+			json.put("perSecond", count.get() * 1000.0 / elapsedMillis);
+			json.put("meanMillis", total == 0 ? 0 : totalNanos.get() / 1000000.0 / total);
+			json.put("maxMillis", maxNanos.get() / 1000000.0);
+			if (total > 0) {
+				json.put("p50Millis", quantileMillis(counts, total, 0.5));
+				json.put("p95Millis", quantileMillis(counts, total, 0.95));
+				json.put("p99Millis", quantileMillis(counts, total, 0.99));
+			}
+			JsonObject histogram = new JsonObject();
+			for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+				histogram.put("le" + (BUCKET_BOUNDS[i] / 1000.0) + "ms", counts[i]);
+			}
+			histogram.put("gt" + (BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1] / 1000.0) + "ms", counts[BUCKET_BOUNDS.length]);
+			json.put("histogram", histogram);
+			return json;
+		}
+	}
+}
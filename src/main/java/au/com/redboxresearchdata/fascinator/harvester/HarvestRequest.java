@@ -26,11 +26,14 @@ package au.com.redboxresearchdata.fascinator.harvester;
 public class HarvestRequest {
 
 	private String requestId;
+	private String type;
 	private String harvesterId;
 	private String hostName;
 	private String hostIp;
 	private String data;
 	private long received;
+	/** JMS message id of the request, null if not received in transacted mode */
+	private String messageId;
 	
 	public HarvestRequest(String requestId, String harvesterId, String hostName, String hostIp, long received) {
 		this.requestId = requestId;
@@ -46,6 +49,12 @@ public class HarvestRequest {
 	public void setRequestId(String requestId) {
 		this.requestId = requestId;
 	}
+	public String getType() {
+		return type;
+	}
+	public void setType(String type) {
+		this.type = type;
+	}
 	public String getHarvesterId() {
 		return harvesterId;
 	}
@@ -76,4 +85,10 @@ public class HarvestRequest {
 	public void setReceived(long received) {
 		this.received = received;
 	}
+	public String getMessageId() {
+		return messageId;
+	}
+	public void setMessageId(String messageId) {
+		this.messageId = messageId;
+	}
 }
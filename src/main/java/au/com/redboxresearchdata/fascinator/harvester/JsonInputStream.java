@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.harvester;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.simple.JSONValue;
+
+/**
+ * Streams a JSON document as UTF-8, serializing it as it is read, e.g. to store a payload without the document's text
+ * and bytes on the heap.
+ *
+ * The document is written a chunk at a time, so only a chunk of a few kilobytes, or a single longer value, is held at once.
+ * The document must not be modified until the stream is read.
+ *
+ * With sorted keys, the compact text is a canonical form of the document, e.g. for hashing.
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class JsonInputStream extends InputStream {
+
+	private static final int CHUNK_SIZE = 8192;
+
+	private static final String INDENT = "    ";
+
+	/** An object or array being written */
+	private static class Frame {
+		final Iterator<?> values;
+		final boolean object;
+		boolean empty = true;
+
+		Frame(Iterator<?> values, boolean object) {
+			this.values = values;
+			this.object = object;
+		}
+	}
+
+	private final Object root;
+
+	private final boolean pretty;
+
+	private final boolean sortKeys;
+
+	private final Deque<Frame> frames = new ArrayDeque<Frame>();
+
+	private final StringBuilder text = new StringBuilder(CHUNK_SIZE + 256);
+
+	private final CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	private final ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+
+	private CharBuffer chars = CharBuffer.wrap("");
+
+	private boolean started;
+
+	private boolean done;
+
+	/**
+	 * @param json - the document, usually a map
+	 * @param pretty - true to indent the document, false for compact JSON
+	 */
+	public JsonInputStream(Object json, boolean pretty) {
+		this(json, pretty, false);
+	}
+
+	/**
+	 * @param json - the document, usually a map
+	 * @param pretty - true to indent the document, false for compact JSON
+	 * @param sortKeys - true to write the members of objects in key order, false in the maps' order
+	 */
+	public JsonInputStream(Object json, boolean pretty, boolean sortKeys) {
+		this.root = json;
+		this.pretty = pretty;
+		this.sortKeys = sortKeys;
+		bytes.limit(0);
+	}
+
+	@Override
+	public int read() {
+		if (!fill()) {
+			return -1;
+		}
+		return bytes.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		int count = Math.min(len, bytes.remaining());
+		bytes.get(b, off, count);
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return bytes.remaining();
+	}
+
+	/**
+	 * Encodes the next bytes, writing the next chunk of the document when the current one is encoded.
+	 *
+	 * @return false at the end of the document
+	 */
+	private boolean fill() {
+		while (!bytes.hasRemaining()) {
+			if (!chars.hasRemaining()) {
+				if (done) {
+					return false;
+				}
+				text.setLength(0);
+				while (!done && text.length() < CHUNK_SIZE) {
+					writeNext();
+				}
+				chars = CharBuffer.wrap(text);
+				encoder.reset();
+			}
+			// chunks end between values, so each is encoded as a whole
+			bytes.clear();
+			encoder.encode(chars, bytes, true);
+			if (!chars.hasRemaining()) {
+				encoder.flush(bytes);
+			}
+			bytes.flip();
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the next member of the current object or array, or its end.
+	 */
+	private void writeNext() {
+		if (!started) {
+			started = true;
+			writeValue(root);
+		} else {
+			Frame frame = frames.peekLast();
+			if (frame.values.hasNext()) {
+				if (!frame.empty) {
+					text.append(',');
+				}
+				frame.empty = false;
+				newLine(frames.size());
+				Object value = frame.values.next();
+				if (frame.object) {
+					Map.Entry<?, ?> entry = (Map.Entry<?, ?>) value;
+					text.append('"').append(JSONValue.escape(String.valueOf(entry.getKey()))).append(pretty ? "\": " : "\":");
+					value = entry.getValue();
+				}
+				writeValue(value);
+			} else {
+				frames.removeLast();
+				if (!frame.empty) {
+					newLine(frames.size());
+				}
+				text.append(frame.object ? '}' : ']');
+			}
+		}
+		done = frames.isEmpty();
+	}
+
+	private void writeValue(Object value) {
+		if (value instanceof Map) {
+			text.append('{');
+			Map<?, ?> map = (Map<?, ?>) value;
+			if (sortKeys) {
+				Map<String, Object> sorted = new TreeMap<String, Object>();
+				for (Map.Entry<?, ?> entry : map.entrySet()) {
+					sorted.put(String.valueOf(entry.getKey()), entry.getValue());
+				}
+				map = sorted;
+			}
+			frames.addLast(new Frame(map.entrySet().iterator(), true));
+		} else if (value instanceof List) {
+			text.append('[');
+			frames.addLast(new Frame(((List<?>) value).iterator(), false));
+		} else {
+			text.append(JSONValue.toJSONString(value));
+		}
+	}
+
+	private void newLine(int depth) {
+		if (pretty) {
+			text.append('\n');
+			for (int i = 0; i < depth; i++) {
+				text.append(INDENT);
+			}
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.harvester;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.googlecode.fascinator.common.JsonObject;
+
+/**
+ * Reusable buffer of a JSON document encoded as UTF-8, to encode a document once and write it to several payloads and files.
+ *
+ * The streams returned by newInputStream() read the buffer in place, and are only valid until the buffer is next set.
+ * Not thread safe.
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class JsonPayloadBuffer extends ByteArrayOutputStream {
+
+	public JsonPayloadBuffer() {
+		super(8192);
+	}
+
+	/**
+	 * Replaces the contents of the buffer with the document, encoded straight into the buffer.
+	 *
+	 * @param json
+	 * @param pretty - true to indent the document, false for compact JSON
+	 * @throws IOException
+	 */
+	public void set(JsonObject json, boolean pretty) throws IOException {
+		reset();
+		IOUtils.copy(new JsonInputStream(json, pretty), this);
+	}
+
+	/**
+	 * @return a stream of the buffer's contents
+	 */
+	public InputStream newInputStream() {
+		return new ByteArrayInputStream(buf, 0, count);
+	}
+
+	/**
+	 * Writes the buffer's contents to the file, creating its parent directories.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void writeTo(File file) throws IOException {
+		OutputStream out = FileUtils.openOutputStream(file);
+		try {
+			writeTo(out);
+			out.close();
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+}
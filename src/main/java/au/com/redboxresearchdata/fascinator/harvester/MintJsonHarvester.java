@@ -18,6 +18,7 @@
 package au.com.redboxresearchdata.fascinator.harvester;
 
 import com.googlecode.fascinator.api.harvester.HarvesterException;
+import com.googlecode.fascinator.api.storage.DigitalObject;
 import com.googlecode.fascinator.common.JsonObject;
 import com.googlecode.fascinator.common.JsonSimple;
 import com.googlecode.fascinator.common.messaging.MessagingException;
@@ -27,8 +28,11 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Harvester for mint harvests. This is used to delegate to a rules config json file, e.g, services, languages, parties_people.
@@ -47,6 +51,9 @@ public class MintJsonHarvester extends BaseJsonHarvester {
     private static final String ID_FIELD_KEY = "idField";
     private static final String DEFAULT_ID_FIELD_VALUE = "ID";
 
+    /** Loaded rules, keyed by rules config path. Reloaded only when the rules config or rules file changes. */
+    private final Map<String, CachedRules> rulesCache = new ConcurrentHashMap<String, CachedRules>();
+
     public MintJsonHarvester() {
         super(ID, NAME);
     }
@@ -68,11 +75,12 @@ public class MintJsonHarvester extends BaseJsonHarvester {
             throw new HarvesterException(e);
         }
         log.info("Rules config not loaded - lazy loading expected.");
+        setUpHarvestSettings();
     }
 
     @Override
-    protected boolean isValidJson(JsonSimple json) {
-        String idVal = json.getString(null, idField);
+    protected boolean isValidJson(HarvestContext context, JsonSimple json) {
+        String idVal = json.getString(null, context.getIdField());
         boolean isValid = idVal != null && idVal.trim().length() > 0;
         log.debug("isValidJson:" + isValid);
         if (!isValid) {
@@ -82,14 +90,17 @@ public class MintJsonHarvester extends BaseJsonHarvester {
     }
 
     /**
-     * Convenience method to start the harvest of objects.
+     * Creates the harvest context, using the rules config, id prefix and id field specified in the incoming data.
+     * The shared harvest config is left untouched, so several requests can be harvested at once.
      *
-     * @param sourceJsonStr - JSON string to harvest - see the class comments for the
-     *                      basic structure
-     * @return List of Object Ids.
+     * @param data - JSON to harvest
+     * @param type
+     * @param requestId
+     * @return the harvest context of the request
      * @throws HarvesterException
      */
-    public List<HarvestItem> harvest(JsonSimple data, String type, String requestId)
+    @Override
+    protected HarvestContext createHarvestContext(JsonSimple data, String type, String requestId)
             throws HarvesterException {
         //get rulesConfig out of data
         String rulesConfig = extractStrictConfig(data, RULES_KEY,requestId);
@@ -97,11 +108,51 @@ public class MintJsonHarvester extends BaseJsonHarvester {
         //TODO : need to get this from current harvest config, not incoming data
         String idFieldValue = extractLenientConfig(data, ID_FIELD_KEY,requestId);
         JsonObject harvest = getHarvest();
-        appendToFullPathOfHarvestKeyValue(harvest, RULES_KEY, rulesConfig + RULES_EXTENSION);
-        appendToPathPrefixOfHarvestKeyValue(harvest, ID_PREFIX_KEY, recordIdInfix.toLowerCase());
-        updateHarvestKeyValueWithDefaultIfEmpty(harvest, ID_FIELD_KEY, idFieldValue, DEFAULT_ID_FIELD_VALUE);
-        setUpRules();
-        return super.harvest(data, type, requestId);
+        HarvestContext context = new HarvestContext(data, type, requestId);
+        String rulesConfigPath = appendToFullPathOfHarvestKeyValue(harvest, RULES_KEY, rulesConfig + RULES_EXTENSION);
+        context.setIdPrefix(appendToPathPrefixOfHarvestKeyValue(harvest, ID_PREFIX_KEY, recordIdInfix.toLowerCase()));
+        context.setIdField(StringUtils.defaultIfEmpty(idFieldValue.trim(), DEFAULT_ID_FIELD_VALUE));
+        context.setHandlingType(harvestConfig.getString(HANDLING_TYPE_OVERWRITE, "harvester", "handlingType"));
+        context.setMainPayloadId(harvestConfig.getString(DEFAULT_PAYLOAD_ID, "harvester", "mainPayloadId"));
+        log.debug("For harvestRequestId: " + requestId + " using rules config: " + rulesConfigPath + ", id prefix: "
+                + context.getIdPrefix() + ", id field: " + context.getIdField());
+        try {
+            loadCachedRules(context, rulesConfigPath);
+        } catch (Exception e) {
+            log.error(errorMessage);
+            throw new HarvesterException(e);
+        }
+        return context;
+    }
+
+    /**
+     * Sets the rules of the rules config path on the context, loading these only if the files have changed since last loaded.
+     * This avoids re-parsing the rules config, re-checking the harvest files in storage and queuing house keeping on every message.
+     *
+     * @param context
+     * @param rulesConfigPath
+     * @throws Exception if the rules cannot be loaded
+     */
+    private void loadCachedRules(HarvestContext context, String rulesConfigPath) throws Exception {
+        CachedRules cached = rulesCache.get(rulesConfigPath);
+        if (cached == null || !cached.isCurrent()) {
+            synchronized (rulesCache) {
+                cached = rulesCache.get(rulesConfigPath);
+                if (cached == null || !cached.isCurrent()) {
+                    log.info("Loading rules config: " + rulesConfigPath);
+                    File rulesConfigFile = new File(rulesConfigPath);
+                    long configModified = rulesConfigFile.lastModified();
+                    long configLength = rulesConfigFile.length();
+                    File rulesFile = loadRules(context, rulesConfigPath);
+                    cached = new CachedRules(rulesConfigFile, configModified, configLength, rulesFile, context);
+                    rulesCache.put(rulesConfigPath, cached);
+                    return;
+                }
+            }
+        }
+        context.setRulesConfig(cached.rulesConfig);
+        context.setRulesObject(cached.rulesObject);
+        context.setRulesConfigObject(cached.rulesConfigObject);
     }
 
     private String extractStrictConfig(JsonSimple data, String configKey, String requestId) throws HarvesterException {
@@ -148,16 +199,16 @@ public class MintJsonHarvester extends BaseJsonHarvester {
 
     }
 
-    private void appendToFullPathOfHarvestKeyValue(JsonObject harvest, String key, String appendage) throws HarvesterException {
+    private String appendToFullPathOfHarvestKeyValue(JsonObject harvest, String key, String appendage) throws HarvesterException {
         String currentValue = getHarvestKeyValue(harvest, key);
-        // current rules config path may have been updated - ensure only the current path is used
-        updateHarvestFileKeyValue(harvest, key, FilenameUtils.getFullPath(currentValue), appendage);
+        // only the path of the configured rules config is used
+        return FilenameUtils.concat(FilenameUtils.getFullPath(currentValue), appendage);
     }
 
-    private void appendToPathPrefixOfHarvestKeyValue(JsonObject harvest, String key, String appendage) throws HarvesterException {
+    private String appendToPathPrefixOfHarvestKeyValue(JsonObject harvest, String key, String appendage) throws HarvesterException {
         String currentValue = getHarvestKeyValue(harvest, key);
-        // current rules config path may have been updated - ensure only the first prefix of path is used
-        updateHarvestFileKeyValue(harvest, key, StringUtils.substringBefore(currentValue, "/"), appendage + "/");
+        // only the first prefix of the configured path is used
+        return FilenameUtils.concat(StringUtils.substringBefore(currentValue, "/"), appendage + "/");
     }
 
     private String getHarvestKeyValue(JsonObject harvest, String key) throws HarvesterException {
@@ -170,23 +221,38 @@ public class MintJsonHarvester extends BaseJsonHarvester {
         }
     }
 
-    private void updateHarvestFileKeyValue(JsonObject harvest, String key, String path, String base) {
-        String value = FilenameUtils.concat(path, base);
-        updateHarvestKeyValue(harvest, key, value);
-    }
+    /**
+     * Rules loaded from a rules config, along with the state of the files these were loaded from.
+     */
+    private static class CachedRules {
+        private final File rulesConfigFile;
+        private final long rulesConfigModified;
+        private final long rulesConfigLength;
+        private final File rulesFile;
+        private final long rulesModified;
+        private final long rulesLength;
+        private final JsonSimple rulesConfig;
+        private final DigitalObject rulesObject;
+        private final DigitalObject rulesConfigObject;
 
-    private void updateHarvestKeyValueWithDefaultIfEmpty(JsonObject harvest, String key, String value, String defaultValue) {
-        String filledValue = StringUtils.defaultIfEmpty(value.trim(), defaultValue);
-        updateHarvestKeyValue(harvest, key, filledValue);
-    }
+        CachedRules(File rulesConfigFile, long rulesConfigModified, long rulesConfigLength, File rulesFile, HarvestContext context) {
+            this.rulesConfigFile = rulesConfigFile;
+            this.rulesConfigModified = rulesConfigModified;
+            this.rulesConfigLength = rulesConfigLength;
+            this.rulesFile = rulesFile;
+            this.rulesModified = rulesFile.lastModified();
+            this.rulesLength = rulesFile.length();
+            this.rulesConfig = context.getRulesConfig();
+            this.rulesObject = context.getRulesObject();
+            this.rulesConfigObject = context.getRulesConfigObject();
+        }
 
-    private void updateHarvestKeyValue(JsonObject harvest, String key, String value) {
-        if (StringUtils.isNotBlank(value)) {
-            log.debug("Updating: " + key + " to: " + value);
-            harvest.put(key, value);
-        } else {
-            log.debug("Value is blank. Key: " + key + " not updated.");
+        /**
+         * @return true if neither file was modified since loading
+         */
+        boolean isCurrent() {
+            return rulesConfigFile.lastModified() == rulesConfigModified && rulesConfigFile.length() == rulesConfigLength
+                    && rulesFile.lastModified() == rulesModified && rulesFile.length() == rulesLength;
         }
     }
-
 }
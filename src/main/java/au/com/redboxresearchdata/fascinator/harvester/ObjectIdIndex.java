@@ -0,0 +1,460 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.harvester;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.googlecode.fascinator.api.storage.Storage;
+import com.googlecode.fascinator.common.FascinatorHome;
+import com.googlecode.fascinator.common.JsonObject;
+import com.googlecode.fascinator.common.JsonSimple;
+
+/**
+ * Cached index of the object ids in storage, to tell new objects from existing ones without a failing storage lookup.
+ *
+ * Built from the storage's object id list, and kept current by the harvesters as they create and delete objects.
+ * Objects created or deleted outside the harvesters are not seen, so the index is a hint: a hit is confirmed by
+ * getting the object, and a miss by creating it, either falling back to the other if it fails.
+ *
+ * The index is loaded on a background thread. Until it is loaded, lookups do not wait for it but report a possible hit,
+ * so objects are looked up in storage as without the index. Objects created while loading are added once loaded.
+ *
+ * The index is either the set of ids, or for large stores a Bloom filter of the ids. The filter uses a fraction of
+ * the memory, at the cost of occasional false hits, and deleted ids staying as hits. The filter is saved to a
+ * snapshot file when the harvesters shut down, and loaded from it on the next start instead of listing storage.
+ * A marker file next to the snapshot is created when an object is first added after the snapshot was saved, and
+ * deleted when it is saved again. If the marker exists on start, e.g. after a crash, the snapshot lacks objects
+ * created since it was saved, and the filter is rebuilt from storage instead.
+ *
+ * One index is shared by all harvesters of a storage instance, using the settings of the first.
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class ObjectIdIndex {
+
+	private static Logger log = LoggerFactory.getLogger(ObjectIdIndex.class);
+
+	/** Index types */
+	public static final String TYPE_SET = "set",
+							   TYPE_BLOOM = "bloom";
+
+	public static final long DEFAULT_EXPECTED_SIZE = 1000000;
+
+	public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+	/** Indexes, keyed by storage instance */
+	private static final Map<Storage, ObjectIdIndex> indexes = new WeakHashMap<Storage, ObjectIdIndex>();
+
+	private final Storage storage;
+
+	private final boolean bloom;
+
+	private final long expectedSize;
+
+	private final double falsePositiveRate;
+
+	/** Snapshot of the Bloom filter, null for none */
+	private final File snapshotFile;
+
+	/** Exists while the filter holds objects missing from the snapshot, null if there is no snapshot */
+	private final File dirtyFile;
+
+	/** Set once the dirty marker was created */
+	private volatile boolean dirty;
+
+	/** The object ids of a set index, null until loaded */
+	private volatile Set<String> oids;
+
+	/** The filter of a Bloom index, null until loaded */
+	private volatile OidBloomFilter filter;
+
+	/** Set if the index could not be loaded, every lookup then reports a possible hit */
+	private volatile boolean unavailable;
+
+	/** Set while a background thread loads the index */
+	private final AtomicBoolean warming = new AtomicBoolean();
+
+	/** Objects created while the index was loading, guarded by itself */
+	private final Set<String> pendingAdds = new HashSet<String>();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong stale = new AtomicLong();
+
+	/** Lookups made before the index was loaded */
+	private final AtomicLong unindexed = new AtomicLong();
+
+	/**
+	 * Returns the index shared by the harvesters of the storage, creating it with the settings of the harvest config:
+	 * "harvester.objectIndexType", "harvester.objectIndexExpectedSize", "harvester.objectIndexFalsePositiveRate" and
+	 * "harvester.objectIndexSnapshot".
+	 *
+	 * @param storage
+	 * @param harvestConfig
+	 * @return the index, loaded on first use
+	 */
+	public static synchronized ObjectIdIndex forStorage(Storage storage, JsonSimple harvestConfig) {
+		ObjectIdIndex index = indexes.get(storage);
+		if (index == null) {
+			String type = harvestConfig.getString(TYPE_SET, "harvester", "objectIndexType");
+			String snapshot = harvestConfig.getString(new File(FascinatorHome.getPath("jsonHarvester"), "objectIndex.bloom").getPath(),
+					"harvester", "objectIndexSnapshot");
+			String falsePositiveRate = harvestConfig.getString(Double.toString(DEFAULT_FALSE_POSITIVE_RATE), "harvester", "objectIndexFalsePositiveRate");
+			index = new ObjectIdIndex(storage, TYPE_BLOOM.equalsIgnoreCase(type),
+					harvestConfig.getInteger((int) DEFAULT_EXPECTED_SIZE, "harvester", "objectIndexExpectedSize"),
+					Double.parseDouble(falsePositiveRate), snapshot.length() == 0 ? null : new File(snapshot));
+			indexes.put(storage, index);
+		}
+		return index;
+	}
+
+	/**
+	 * @param storage
+	 * @param bloom - true for a Bloom filter index, false for a set of the ids
+	 * @param expectedSize - number of objects the Bloom filter is sized for
+	 * @param falsePositiveRate - of the Bloom filter at the expected size
+	 * @param snapshotFile - snapshot of the Bloom filter, null for none
+	 */
+	public ObjectIdIndex(Storage storage, boolean bloom, long expectedSize, double falsePositiveRate, File snapshotFile) {
+		this.storage = storage;
+		this.bloom = bloom;
+		this.expectedSize = expectedSize;
+		this.falsePositiveRate = falsePositiveRate;
+		this.snapshotFile = snapshotFile;
+		this.dirtyFile = snapshotFile == null ? null : new File(snapshotFile.getPath() + ".dirty");
+	}
+
+	/**
+	 * Returns whether the object may exist. False means the object was not in storage when the index was loaded
+	 * and has not been created by the harvesters since.
+	 *
+	 * @param oid
+	 * @return true if the object is indexed, or if the index is not loaded
+	 */
+	public boolean mayContain(String oid) {
+		OidBloomFilter currentFilter = filter;
+		Set<String> current = oids;
+		if (currentFilter == null && current == null) {
+			warmInBackground();
+			unindexed.incrementAndGet();
+			return true;
+		}
+		boolean present = currentFilter != null ? currentFilter.mightContain(oid) : current.contains(oid);
+		(present ? hits : misses).incrementAndGet();
+		return present;
+	}
+
+	/**
+	 * Records a created object.
+	 *
+	 * @param oid
+	 */
+	public void add(String oid) {
+		if (unavailable) {
+			return;
+		}
+		if (addLoaded(oid)) {
+			if (!dirty) {
+				markDirty();
+			}
+			return;
+		}
+		synchronized (pendingAdds) {
+			if (!addLoaded(oid)) {
+				pendingAdds.add(oid);
+			}
+		}
+	}
+
+	/**
+	 * Records a deleted object. Ids cannot be removed from a Bloom filter, these stay as hits.
+	 *
+	 * @param oid
+	 */
+	public void remove(String oid) {
+		Set<String> current = oids;
+		if (current != null) {
+			current.remove(oid);
+		}
+		synchronized (pendingAdds) {
+			pendingAdds.remove(oid);
+		}
+	}
+
+	/**
+	 * Records an indexed object that was not found in storage, i.e. deleted outside the harvesters.
+	 *
+	 * @param oid
+	 */
+	public void removeStale(String oid) {
+		stale.incrementAndGet();
+		remove(oid);
+	}
+
+	/**
+	 * @return the number of indexed objects, for a Bloom filter the number of ids added, -1 if not loaded
+	 */
+	public long size() {
+		OidBloomFilter currentFilter = filter;
+		if (currentFilter != null) {
+			return currentFilter.getAdded();
+		}
+		Set<String> current = oids;
+		return current == null ? -1 : current.size();
+	}
+
+	/**
+	 * Loads the index now, waiting for it to load.
+	 */
+	public void warm() {
+		load();
+	}
+
+	/**
+	 * Loads the index on a background thread, unless loaded or already loading.
+	 */
+	public void warmInBackground() {
+		if (filter != null || oids != null || unavailable || !warming.compareAndSet(false, true)) {
+			return;
+		}
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					load();
+				} finally {
+					warming.set(false);
+				}
+			}
+		}, "ObjectIdIndex-warm");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Saves the Bloom filter to the snapshot file, if any, and deletes the dirty marker.
+	 */
+	public synchronized void saveSnapshot() {
+		if (filter == null || snapshotFile == null) {
+			return;
+		}
+		// objects added while saving mark the snapshot dirty again
+		dirty = false;
+		File temp = new File(snapshotFile.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			FileUtils.forceMkdir(temp.getAbsoluteFile().getParentFile());
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			filter.writeTo(out);
+			out.close();
+			out = null;
+			if (snapshotFile.exists() && !snapshotFile.delete() || !temp.renameTo(snapshotFile)) {
+				throw new IOException("Failed to replace " + snapshotFile.getPath());
+			}
+			if (dirtyFile.exists() && !dirtyFile.delete()) {
+				throw new IOException("Failed to delete " + dirtyFile.getPath());
+			}
+			log.info("Saved object id filter snapshot of " + filter.getAdded() + " ids: " + snapshotFile.getPath());
+		} catch (IOException e) {
+			log.error("Failed to save object id filter snapshot: " + e.getMessage());
+			dirty = true;
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+	/**
+	 * Discards the index and its snapshot, it is rebuilt from storage on next use.
+	 */
+	public synchronized void reset() {
+		oids = null;
+		filter = null;
+		unavailable = false;
+		synchronized (pendingAdds) {
+			pendingAdds.clear();
+		}
+		if (snapshotFile != null) {
+			FileUtils.deleteQuietly(snapshotFile);
+			FileUtils.deleteQuietly(dirtyFile);
+		}
+		dirty = false;
+	}
+
+	/**
+	 * @return a json object of the index type, size, hits, misses, stale entries and lookups made before it was loaded
+	 */
+	@SuppressWarnings("unchecked")
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.put("type", bloom ? TYPE_BLOOM : TYPE_SET);
+		json.put("size", size());
+		json.put("available", !unavailable);
+		json.put("warming", warming.get());
+		json.put("hits", hits.get());
+		json.put("misses", misses.get());
+		json.put("stale", stale.get());
+		json.put("unindexed", unindexed.get());
+		OidBloomFilter currentFilter = filter;
+		if (currentFilter != null) {
+			json.put("bits", currentFilter.getBitCount());
+			json.put("hashes", currentFilter.getHashCount());
+			json.put("falsePositiveRate", currentFilter.getExpectedFalsePositiveRate());
+		}
+		return json;
+	}
+
+	/**
+	 * Loads the index, adding the objects created while loading.
+	 */
+	private synchronized void load() {
+		if (oids != null || filter != null || unavailable) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		try {
+			if (bloom) {
+				OidBloomFilter loaded = readSnapshot();
+				boolean built = loaded == null;
+				if (built) {
+					loaded = buildFilter();
+				}
+				boolean added;
+				synchronized (pendingAdds) {
+					for (String oid : pendingAdds) {
+						loaded.put(oid);
+					}
+					added = !pendingAdds.isEmpty();
+					pendingAdds.clear();
+					filter = loaded;
+				}
+				if (built) {
+					saveSnapshot();
+				} else if (added) {
+					markDirty();
+				}
+			} else {
+				Set<String> loaded = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+				loaded.addAll(storage.getObjectIdList());
+				synchronized (pendingAdds) {
+					loaded.addAll(pendingAdds);
+					pendingAdds.clear();
+					oids = loaded;
+				}
+			}
+			log.info("Loaded object id index of " + size() + " objects in " + (System.currentTimeMillis() - start) + "ms");
+		} catch (RuntimeException e) {
+			log.error("Failed to load the object id index, checking storage for every object.", e);
+			unavailable = true;
+			synchronized (pendingAdds) {
+				pendingAdds.clear();
+			}
+		}
+	}
+
+	/**
+	 * @param oid
+	 * @return true if the index is loaded and the object was added to it
+	 */
+	private boolean addLoaded(String oid) {
+		OidBloomFilter currentFilter = filter;
+		if (currentFilter != null) {
+			currentFilter.put(oid);
+			return true;
+		}
+		Set<String> current = oids;
+		if (current != null) {
+			current.add(oid);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Creates the dirty marker of the snapshot, if any.
+	 */
+	private synchronized void markDirty() {
+		if (dirty || dirtyFile == null) {
+			return;
+		}
+		try {
+			FileUtils.touch(dirtyFile);
+		} catch (IOException e) {
+			log.error("Failed to mark the object id filter snapshot dirty, it may be stale after a crash: " + e.getMessage());
+		}
+		dirty = true;
+	}
+
+	/**
+	 * @return the filter of the snapshot, null if there is none, it is dirty, or it cannot be read
+	 */
+	private OidBloomFilter readSnapshot() {
+		if (snapshotFile == null || !snapshotFile.exists()) {
+			return null;
+		}
+		if (dirtyFile.exists()) {
+			log.warn("Object id filter snapshot was not saved on last shut down, rebuilding from storage: " + snapshotFile.getPath());
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+			OidBloomFilter loaded = OidBloomFilter.readFrom(in);
+			log.info("Loaded object id filter snapshot: " + snapshotFile.getPath());
+			return loaded;
+		} catch (IOException e) {
+			log.warn("Failed to read object id filter snapshot, rebuilding from storage: " + e.getMessage());
+			return null;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * @return a filter of the objects in storage
+	 */
+	private OidBloomFilter buildFilter() {
+		Set<String> ids = storage.getObjectIdList();
+		OidBloomFilter built = new OidBloomFilter(Math.max(expectedSize, ids.size() * 2L), falsePositiveRate);
+		for (String oid : ids) {
+			built.put(oid);
+		}
+		return built;
+	}
+}
@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.harvester;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of object ids, for a compact set of millions of OIDs.
+ *
+ * Answers "definitely not present" or "maybe present", with a false positive rate set by its size. Entries cannot be
+ * removed. The harvester OIDs are MD5 hex strings, already uniformly distributed, so the bit positions are derived
+ * directly from the hash: the k positions are h1 + i * h2 for the two halves of the MD5. Other ids are hashed first.
+ *
+ * Adding and checking are lock free, and safe from several threads.
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class OidBloomFilter {
+
+	private static final int SNAPSHOT_MAGIC = 0x4f494442; // "OIDB"
+
+	private static final int SNAPSHOT_VERSION = 1;
+
+	private final AtomicLongArray bits;
+
+	private final long bitCount;
+
+	private final int hashCount;
+
+	/** Number of ids added, including any already present */
+	private final AtomicLong added = new AtomicLong();
+
+	/**
+	 * Creates a filter sized for the number of ids and false positive rate.
+	 *
+	 * @param expectedIds
+	 * @param falsePositiveRate - between 0 and 1, e.g. 0.01
+	 */
+	public OidBloomFilter(long expectedIds, double falsePositiveRate) {
+		long n = Math.max(1, expectedIds);
+		double p = Math.min(0.5, Math.max(1e-9, falsePositiveRate));
+		long m = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+		int words = (int) Math.min(Integer.MAX_VALUE, (m + 63) / 64);
+		this.bits = new AtomicLongArray(words);
+		this.bitCount = words * 64L;
+		this.hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+	}
+
+	private OidBloomFilter(AtomicLongArray bits, int hashCount, long added) {
+		this.bits = bits;
+		this.bitCount = bits.length() * 64L;
+		this.hashCount = hashCount;
+		this.added.set(added);
+	}
+
+	/**
+	 * Adds the id.
+	 *
+	 * @param oid
+	 */
+	public void put(String oid) {
+		long h1 = hash1(oid);
+		long h2 = hash2(oid, h1);
+		for (int i = 0; i < hashCount; i++) {
+			long bit = index(h1 + i * h2);
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+			long current = bits.get(word);
+			while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+				current = bits.get(word);
+			}
+		}
+		added.incrementAndGet();
+	}
+
+	/**
+	 * @param oid
+	 * @return false if the id was definitely never added
+	 */
+	public boolean mightContain(String oid) {
+		long h1 = hash1(oid);
+		long h2 = hash2(oid, h1);
+		for (int i = 0; i < hashCount; i++) {
+			long bit = index(h1 + i * h2);
+			if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return number of ids added
+	 */
+	public long getAdded() {
+		return added.get();
+	}
+
+	public long getBitCount() {
+		return bitCount;
+	}
+
+	public int getHashCount() {
+		return hashCount;
+	}
+
+	/**
+	 * @return the expected false positive rate at the current fill
+	 */
+	public double getExpectedFalsePositiveRate() {
+		long set = 0;
+		for (int i = 0; i < bits.length(); i++) {
+			set += Long.bitCount(bits.get(i));
+		}
+		return Math.pow((double) set / bitCount, hashCount);
+	}
+
+	/**
+	 * Writes the filter.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(SNAPSHOT_MAGIC);
+		out.writeInt(SNAPSHOT_VERSION);
+		out.writeInt(bits.length());
+		out.writeInt(hashCount);
+		out.writeLong(added.get());
+		for (int i = 0; i < bits.length(); i++) {
+			out.writeLong(bits.get(i));
+		}
+	}
+
+	/**
+	 * Reads a filter written by writeTo().
+	 *
+	 * @param in
+	 * @return the filter
+	 * @throws IOException if the data is not a filter snapshot
+	 */
+	public static OidBloomFilter readFrom(DataInputStream in) throws IOException {
+		if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+			throw new IOException("Not an object id filter snapshot.");
+		}
+		int words = in.readInt();
+		int hashCount = in.readInt();
+		long added = in.readLong();
+		if (words < 1 || hashCount < 1) {
+			throw new IOException("Invalid object id filter snapshot.");
+		}
+		AtomicLongArray bits = new AtomicLongArray(words);
+		for (int i = 0; i < words; i++) {
+			bits.set(i, in.readLong());
+		}
+		return new OidBloomFilter(bits, hashCount, added);
+	}
+
+	private long index(long combined) {
+		return (combined & Long.MAX_VALUE) % bitCount;
+	}
+
+	/**
+	 * @return the first half of the MD5 of an MD5 hex id, otherwise a mixed hash of the id
+	 */
+	private static long hash1(String oid) {
+		if (oid.length() == 32 && isHex(oid, 0)) {
+			return parseHex(oid, 0);
+		}
+		// 64 bit FNV-1a
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < oid.length(); i++) {
+			h ^= oid.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	private static long hash2(String oid, long h1) {
+		if (oid.length() == 32 && isHex(oid, 16)) {
+			return parseHex(oid, 16) | 1;
+		}
+		return mix(h1 ^ oid.length()) | 1;
+	}
+
+	private static boolean isHex(String oid, int from) {
+		for (int i = from; i < from + 16; i++) {
+			if (Character.digit(oid.charAt(i), 16) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the value of the 16 hex digits from the offset
+	 */
+	private static long parseHex(String oid, int from) {
+		long value = 0;
+		for (int i = from; i < from + 16; i++) {
+			value = (value << 4) | Character.digit(oid.charAt(i), 16);
+		}
+		return value;
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
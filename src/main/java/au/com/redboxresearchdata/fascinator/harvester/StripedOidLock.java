@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.harvester;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.googlecode.fascinator.common.JsonObject;
+
+/**
+ * Serializes work on the same OID, while different OIDs proceed in parallel.
+ *
+ * OIDs are hashed onto a fixed number of stripes, each guarded by its own lock. An uncontended stripe is
+ * acquired with a single compare-and-set, waiting only happens when another thread holds the stripe.
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class StripedOidLock {
+
+	/** Default number of stripes */
+	public static final int DEFAULT_STRIPES = 64;
+
+	private final ReentrantLock[] stripes;
+
+	private final int mask;
+
+	/** Number of times a stripe was acquired */
+	private final AtomicLong acquired = new AtomicLong();
+
+	/** Number of times a stripe was held by another thread */
+	private final AtomicLong contended = new AtomicLong();
+
+	/** Total time spent waiting for contended stripes */
+	private final AtomicLong waitNanos = new AtomicLong();
+
+	public StripedOidLock() {
+		this(DEFAULT_STRIPES);
+	}
+
+	/**
+	 * @param stripeCount - number of stripes, rounded up to a power of two
+	 */
+	public StripedOidLock(int stripeCount) {
+		int size = 1;
+		while (size < stripeCount) {
+			size <<= 1;
+		}
+		stripes = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * Acquires the stripe of the OID, blocking if another thread holds it.
+	 *
+	 * @param oid
+	 */
+	public void lock(String oid) {
+		ReentrantLock stripe = getStripe(oid);
+		acquired.incrementAndGet();
+		if (stripe.tryLock()) {
+			return;
+		}
+		contended.incrementAndGet();
+		long start = System.nanoTime();
+		stripe.lock();
+		waitNanos.addAndGet(System.nanoTime() - start);
+	}
+
+	/**
+	 * Releases the stripe of the OID.
+	 *
+	 * @param oid
+	 */
+	public void unlock(String oid) {
+		getStripe(oid).unlock();
+	}
+
+	private ReentrantLock getStripe(String oid) {
+		int h = oid.hashCode();
+		// spread the high bits, the low bits select the stripe
+		h ^= (h >>> 16);
+		return stripes[h & mask];
+	}
+
+	public int getStripeCount() {
+		return stripes.length;
+	}
+
+	public long getAcquired() {
+		return acquired.get();
+	}
+
+	public long getContended() {
+		return contended.get();
+	}
+
+	public long getWaitNanos() {
+		return waitNanos.get();
+	}
+
+	/**
+	 * Returns the contention counters as JSON.
+	 *
+	 * @return JSON object with the stripe count, acquisitions, contended acquisitions and total wait in milliseconds.
+	 */
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.put("stripes", getStripeCount());
+		json.put("acquired", getAcquired());
+		json.put("contended", getContended());
+		json.put("waitMillis", getWaitNanos() / 1000000L);
+		return json;
+	}
+}
@@ -52,6 +52,31 @@ public interface JsonHarvestQueueMXBean {
 	 */
 	public void removeFailedItem(String itemId);
 	
+	/**
+	 * Return a json array of the failed harvest item ids of a request.
+	 * 
+	 * @param hrid
+	 */
+	public String getFailedItemIdsOfRequest(String hrid);
+	
+	/**
+	 * Starts harvesting the journaled failed items again, in parallel and rate limited. 
+	 * Empty criteria match any value, and times of 0 are unbounded. 
+	 * 
+	 * @param type - harvest type
+	 * @param harvesterId
+	 * @param fromTime - earliest failure time, in milliseconds since the epoch
+	 * @param toTime - latest failure time, in milliseconds since the epoch
+	 * @return the replay status as a json object
+	 */
+	public String replayFailedItems(String type, String harvesterId, long fromTime, long toTime);
+	
+	/**
+	 * Returns a json object of the number of items matched, replayed and failed by the current or last replay.
+	 * 
+	 */
+	public String getReplayStatus();
+	
 	/**
 	 * Returns json array of data that failed to harvest.
 	 * @return
@@ -66,4 +91,29 @@ public interface JsonHarvestQueueMXBean {
 	/** Clears failed items */
 	public void clearFailedItems();
 	
+	/**
+	 * Returns a json object of the number of registered requests, those holding data, and evicted requests.
+	 * 
+	 */
+	public String getRequestRegistryStats();
+	
+	/**
+	 * Returns a json object of the failure store's entry counts, heap estimate and spill file usage.
+	 * 
+	 */
+	public String getFailureStoreStats();
+	
+	/**
+	 * Returns a json object of the OID lock contention counters, keyed by harvest type.
+	 * 
+	 */
+	public String getOidLockStats();
+	
+	/**
+	 * Returns a json object of the object id index size, hits, misses and stale entries, keyed by harvest type.
+	 * Harvesters of the same storage share the index.
+	 * 
+	 */
+	public String getObjectIndexStats();
+	
 }
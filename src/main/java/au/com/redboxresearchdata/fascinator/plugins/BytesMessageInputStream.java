@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+/**
+ * Reads the body of a BytesMessage as a stream.
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class BytesMessageInputStream extends InputStream {
+
+	/** Message property declaring the compression of the body */
+	public static final String CONTENT_ENCODING_PROPERTY = "contentEncoding";
+
+	public static final String ENCODING_GZIP = "gzip",
+							   ENCODING_DEFLATE = "deflate",
+							   ENCODING_IDENTITY = "identity";
+
+	private BytesMessage message;
+
+	private byte[] buffer;
+
+	public BytesMessageInputStream(BytesMessage message) {
+		this.message = message;
+	}
+
+	/**
+	 * Opens the body of the message, decompressing it according to its "contentEncoding" property.
+	 *
+	 * @param message
+	 * @return the uncompressed body
+	 * @throws IOException if the encoding is not supported
+	 * @throws JMSException if the property cannot be read
+	 */
+	public static InputStream open(BytesMessage message) throws IOException, JMSException {
+		String encoding = message.getStringProperty(CONTENT_ENCODING_PROPERTY);
+		if (!isSupportedEncoding(encoding)) {
+			throw new IOException("Unsupported content encoding: " + encoding);
+		}
+		InputStream in = new BytesMessageInputStream(message);
+		if (ENCODING_GZIP.equalsIgnoreCase(encoding)) {
+			return new GZIPInputStream(in);
+		}
+		if (ENCODING_DEFLATE.equalsIgnoreCase(encoding)) {
+			return new InflaterInputStream(in);
+		}
+		return in;
+	}
+
+	/**
+	 * @param encoding - the "contentEncoding" property, null if not set
+	 * @return true if the body can be opened, i.e. the encoding is not set, "identity", "gzip" or "deflate"
+	 */
+	public static boolean isSupportedEncoding(String encoding) {
+		return encoding == null || encoding.trim().length() == 0 || ENCODING_IDENTITY.equalsIgnoreCase(encoding)
+				|| ENCODING_GZIP.equalsIgnoreCase(encoding) || ENCODING_DEFLATE.equalsIgnoreCase(encoding);
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] single = new byte[1];
+		int read = read(single, 0, 1);
+		return read == -1 ? -1 : single[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		try {
+			if (off == 0) {
+				return message.readBytes(b, len);
+			}
+			if (buffer == null || buffer.length < len) {
+				buffer = new byte[len];
+			}
+			int read = message.readBytes(buffer, len);
+			if (read > 0) {
+				System.arraycopy(buffer, 0, b, off, read);
+			}
+			return read;
+		} catch (JMSException e) {
+			throw new IOException("Failed to read message body: " + e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,497 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.plugins;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.com.redboxresearchdata.fascinator.harvester.HarvestItem;
+import au.com.redboxresearchdata.fascinator.harvester.HarvestRequest;
+
+import com.googlecode.fascinator.common.JsonObject;
+import com.googlecode.fascinator.common.JsonSimple;
+
+/**
+ * Append-only journal of the items that failed to harvest, so failures survive a restart.
+ *
+ * Each line of the file is a JSON record: "fail" records hold the failed item, its request headers and its data,
+ * "remove" records mark an item as resolved, and a later "fail" record of the same hid replaces the earlier one.
+ * The live records are indexed by hid and by hrid in heap, the data is read from the file when needed.
+ * The file is rewritten with only the live records when most of its records are dead: on open, and while open once it
+ * holds at least MIN_COMPACT_RECORDS records.
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class FailureJournal {
+
+	/** Logging */
+	private static Logger log = LoggerFactory.getLogger(FailureJournal.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String OP_FAIL = "fail",
+								OP_REMOVE = "remove";
+
+	/** Number of records from which the journal is compacted while open */
+	static final int MIN_COMPACT_RECORDS = 1000;
+
+	private final File file;
+
+	/** Forces each record to disk when true */
+	private final boolean sync;
+
+	private FileChannel channel;
+
+	/** Live records, keyed by hid, oldest first */
+	private Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+	/** Hids of the live records, keyed by hrid */
+	private Map<String, Set<String>> requestIndex = new LinkedHashMap<String, Set<String>>();
+
+	/** Number of records in the file */
+	private int records;
+
+	/**
+	 * @param file - the journal, created if necessary
+	 * @param sync - if each record is forced to disk
+	 */
+	public FailureJournal(File file, boolean sync) {
+		this.file = file;
+		this.sync = sync;
+	}
+
+	/**
+	 * Opens the journal, indexing its live records.
+	 *
+	 * @throws IOException if the journal cannot be read
+	 */
+	public synchronized void open() throws IOException {
+		File dir = file.getParentFile();
+		if (dir != null && !dir.exists()) {
+			dir.mkdirs();
+		}
+		if (file.exists()) {
+			index();
+			if (records > 2 * entries.size()) {
+				compact();
+			}
+		}
+		openChannel();
+		log.info("Failure journal: " + file.getPath() + ", " + entries.size() + " failed item(s)");
+	}
+
+	public synchronized void close() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.warn("Failed to close failure journal: {}", e.getMessage());
+			}
+			channel = null;
+		}
+	}
+
+	/**
+	 * Records the failed item.
+	 *
+	 * @param item - item with the failed JSON as data
+	 * @param request
+	 * @throws IOException if the record cannot be written
+	 */
+	public synchronized void append(HarvestItem item, HarvestRequest request) throws IOException {
+		JsonObject record = new JsonObject();
+		record.put("op", OP_FAIL);
+		record.put("hid", item.getHid());
+		record.put("hrid", item.getHrid());
+		record.put("oid", item.getOid());
+		record.put("valid", Boolean.toString(item.isValid()));
+		record.put("type", request.getType());
+		record.put("harvesterId", request.getHarvesterId());
+		record.put("hostName", request.getHostName());
+		record.put("hostIp", request.getHostIp());
+		record.put("time", System.currentTimeMillis());
+		record.put("data", ((JsonSimple) item.getData()).getJsonObject());
+		add(write(record));
+		compactIfMostlyDead();
+	}
+
+	/**
+	 * Replaces the failed JSON of the item.
+	 *
+	 * @param hid
+	 * @param data
+	 * @throws IOException if the record cannot be written
+	 */
+	public synchronized void update(String hid, JsonSimple data) throws IOException {
+		Entry entry = entries.get(hid);
+		if (entry == null) {
+			return;
+		}
+		JsonObject record = entry.toRecord();
+		record.put("data", data.getJsonObject());
+		add(write(record));
+		compactIfMostlyDead();
+	}
+
+	/**
+	 * Marks the item as resolved.
+	 *
+	 * @param hid
+	 * @throws IOException if the record cannot be written
+	 */
+	public synchronized void remove(String hid) throws IOException {
+		if (!entries.containsKey(hid)) {
+			return;
+		}
+		JsonObject record = new JsonObject();
+		record.put("op", OP_REMOVE);
+		record.put("hid", hid);
+		write(record);
+		unindex(hid);
+		compactIfMostlyDead();
+	}
+
+	/**
+	 * Discards all records.
+	 *
+	 * @throws IOException if the journal cannot be truncated
+	 */
+	public synchronized void clear() throws IOException {
+		entries.clear();
+		requestIndex.clear();
+		records = 0;
+		if (channel != null) {
+			channel.truncate(0);
+			channel.position(0);
+		}
+	}
+
+	/**
+	 * @param hid
+	 * @return the record of the item, null if not failed
+	 */
+	public synchronized Entry get(String hid) {
+		return entries.get(hid);
+	}
+
+	/**
+	 * @param hrid
+	 * @return the hids of the failed items of the request
+	 */
+	public synchronized List<String> getHids(String hrid) {
+		Set<String> hids = requestIndex.get(hrid);
+		return hids == null ? new ArrayList<String>() : new ArrayList<String>(hids);
+	}
+
+	/**
+	 * Returns the records matching all the given criteria.
+	 *
+	 * @param type - harvest type, null or empty for any
+	 * @param harvesterId - null or empty for any
+	 * @param fromTime - earliest failure time in milliseconds, 0 for any
+	 * @param toTime - latest failure time in milliseconds, 0 for any
+	 * @return the records, oldest first
+	 */
+	public synchronized List<Entry> find(String type, String harvesterId, long fromTime, long toTime) {
+		List<Entry> found = new ArrayList<Entry>();
+		for (Entry entry : entries.values()) {
+			if (matches(type, entry.type) && matches(harvesterId, entry.harvesterId)
+					&& (fromTime <= 0 || entry.time >= fromTime) && (toTime <= 0 || entry.time <= toTime)) {
+				found.add(entry);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return the live records, oldest first
+	 */
+	public synchronized List<Entry> getEntries() {
+		return new ArrayList<Entry>(entries.values());
+	}
+
+	/**
+	 * Reads the failed JSON of the item's live record, which may have been updated since the entry was listed.
+	 * Holds the lock, as compacting moves the records.
+	 *
+	 * @param entry
+	 * @return the failed JSON, i.e. "type" and "data"
+	 * @throws IOException if the record cannot be read, or the item is no longer failed
+	 */
+	public synchronized JsonSimple readData(Entry entry) throws IOException {
+		if (channel == null) {
+			throw new IOException("Failure journal is not open");
+		}
+		Entry live = entries.get(entry.hid);
+		if (live == null) {
+			throw new IOException("Failed item is no longer in the failure journal: " + entry.hid);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(live.length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, live.offset + buffer.position()) < 0) {
+				throw new IOException("Truncated failure journal record: " + live.hid);
+			}
+		}
+		JsonSimple record = new JsonSimple(new String(buffer.array(), UTF8));
+		return new JsonSimple(record.getObject("data"));
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Appends the record.
+	 *
+	 * @return the index of the record
+	 */
+	private Entry write(JsonObject record) throws IOException {
+		if (channel == null) {
+			throw new IOException("Failure journal is not open");
+		}
+		byte[] line = (new JsonSimple(record).toString() + "\n").getBytes(UTF8);
+		long offset = channel.position();
+		ByteBuffer buffer = ByteBuffer.wrap(line);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		if (sync) {
+			channel.force(false);
+		}
+		records++;
+		return new Entry(record, offset, line.length - 1);
+	}
+
+	private void add(Entry entry) {
+		unindex(entry.hid);
+		entries.put(entry.hid, entry);
+		Set<String> hids = requestIndex.get(entry.hrid);
+		if (hids == null) {
+			hids = new LinkedHashSet<String>();
+			requestIndex.put(entry.hrid, hids);
+		}
+		hids.add(entry.hid);
+	}
+
+	private void unindex(String hid) {
+		Entry entry = entries.remove(hid);
+		if (entry == null) {
+			return;
+		}
+		Set<String> hids = requestIndex.get(entry.hrid);
+		if (hids != null) {
+			hids.remove(hid);
+			if (hids.isEmpty()) {
+				requestIndex.remove(entry.hrid);
+			}
+		}
+	}
+
+	/**
+	 * Reads the file, indexing the live records. A partly written last record is ignored.
+	 */
+	private void index() throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF8));
+			long offset = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int length = line.getBytes(UTF8).length;
+				records++;
+				try {
+					JsonSimple record = new JsonSimple(line);
+					String hid = record.getString(null, "hid");
+					if (OP_REMOVE.equals(record.getString(null, "op"))) {
+						unindex(hid);
+					} else if (hid != null) {
+						add(new Entry(record.getJsonObject(), offset, length));
+					}
+				} catch (IOException e) {
+					log.warn("Skipping unreadable failure journal record at offset " + offset);
+				}
+				offset += length + 1;
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	private void openChannel() throws IOException {
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		channel.position(channel.size());
+	}
+
+	/**
+	 * Compacts the open journal once most of its records are dead, e.g. replaced or resolved failures.
+	 */
+	private void compactIfMostlyDead() throws IOException {
+		if (records < MIN_COMPACT_RECORDS || records <= 2 * entries.size()) {
+			return;
+		}
+		channel.close();
+		channel = null;
+		try {
+			compact();
+		} finally {
+			openChannel();
+		}
+	}
+
+	/**
+	 * Rewrites the file with only the live records.
+	 */
+	private void compact() throws IOException {
+		File compacted = new File(file.getPath() + ".compact");
+		FileChannel source = new FileInputStream(file).getChannel();
+		FileChannel target = new FileOutputStream(compacted).getChannel();
+		try {
+			long offset = 0;
+			for (Entry entry : entries.values()) {
+				// the record and its line separator
+				ByteBuffer buffer = ByteBuffer.allocate(entry.length + 1);
+				while (buffer.hasRemaining() && source.read(buffer, entry.offset + buffer.position()) >= 0) {
+				}
+				buffer.flip();
+				target.write(buffer);
+				entry.offset = offset;
+				offset += entry.length + 1;
+			}
+			target.force(true);
+		} finally {
+			IOUtils.closeQuietly(source);
+			IOUtils.closeQuietly(target);
+		}
+		log.info("Compacted failure journal from " + records + " to " + entries.size() + " records");
+		if (!file.delete() || !compacted.renameTo(file)) {
+			throw new IOException("Failed to replace failure journal with: " + compacted.getPath());
+		}
+		records = entries.size();
+	}
+
+	private static boolean matches(String criterion, String value) {
+		return criterion == null || criterion.length() == 0 || criterion.equals(value);
+	}
+
+	/**
+	 * The index of a failed item's record.
+	 */
+	public static class Entry {
+		private final String hid;
+		private final String hrid;
+		private final String oid;
+		private final boolean valid;
+		private final String type;
+		private final String harvesterId;
+		private final String hostName;
+		private final String hostIp;
+		private final long time;
+		private long offset;
+		private int length;
+
+		Entry(JsonObject record, long offset, int length) {
+			JsonSimple json = new JsonSimple(record);
+			hid = json.getString(null, "hid");
+			hrid = json.getString(null, "hrid");
+			oid = json.getString(null, "oid");
+			valid = Boolean.parseBoolean(json.getString("false", "valid"));
+			type = json.getString(null, "type");
+			harvesterId = json.getString(null, "harvesterId");
+			hostName = json.getString(null, "hostName");
+			hostIp = json.getString(null, "hostIp");
+			time = json.getLong(0L, "time");
+			this.offset = offset;
+			this.length = length;
+		}
+
+		/**
+		 * @return the record, without its data
+		 */
+		JsonObject toRecord() {
+			JsonObject record = new JsonObject();
+			record.put("op", OP_FAIL);
+			record.put("hid", hid);
+			record.put("hrid", hrid);
+			record.put("oid", oid);
+			record.put("valid", Boolean.toString(valid));
+			record.put("type", type);
+			record.put("harvesterId", harvesterId);
+			record.put("hostName", hostName);
+			record.put("hostIp", hostIp);
+			record.put("time", time);
+			return record;
+		}
+
+		/**
+		 * @return the item of the record, without its data
+		 */
+		public HarvestItem toItem() {
+			HarvestItem item = new HarvestItem(oid, null, false, valid, false);
+			item.setHid(hid);
+			item.setHrid(hrid);
+			return item;
+		}
+
+		public String getHid() {
+			return hid;
+		}
+
+		public String getHrid() {
+			return hrid;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public String getHarvesterId() {
+			return harvesterId;
+		}
+
+		public String getHostName() {
+			return hostName;
+		}
+
+		public String getHostIp() {
+			return hostIp;
+		}
+
+		public long getTime() {
+			return time;
+		}
+	}
+}
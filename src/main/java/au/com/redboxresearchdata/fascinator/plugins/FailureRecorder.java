@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.plugins;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.com.redboxresearchdata.fascinator.harvester.HarvestItem;
+import au.com.redboxresearchdata.fascinator.harvester.HarvestRequest;
+
+/**
+ * Records the failed items and requests in the failure store and journal, once per message.
+ *
+ * A message rolled back and redelivered is harvested again, and its items get new harvest item ids. The failures of a
+ * message are instead remembered by its JMS message id and the position of the item in "data.data", so a redelivered
+ * message records nothing new. Failures of messages without a message id, e.g. replayed items, are always recorded.
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class FailureRecorder {
+
+	/** Logging */
+	private static Logger log = LoggerFactory.getLogger(FailureRecorder.class);
+
+	/** Default maximum number of failures remembered as recorded */
+	public static final int DEFAULT_MAX_REMEMBERED = 10000;
+
+	/** Position of a failed request, as opposed to its items */
+	public static final int REQUEST_POSITION = -1;
+
+	private final FailureStore store;
+
+	/** Durable record of the failed items, null if disabled */
+	private final FailureJournal journal;
+
+	/** Failures recorded, keyed by JMS message id and position */
+	private final Map<String, Boolean> recorded;
+
+	public FailureRecorder(FailureStore store, FailureJournal journal) {
+		this(store, journal, DEFAULT_MAX_REMEMBERED);
+	}
+
+	public FailureRecorder(FailureStore store, FailureJournal journal, final int maxRemembered) {
+		this.store = store;
+		this.journal = journal;
+		this.recorded = new LinkedHashMap<String, Boolean>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+				return size() > maxRemembered;
+			}
+		};
+	}
+
+	/**
+	 * Journals and stores the failed item, unless already recorded for the message.
+	 *
+	 * @param item - item with the failed JSON as data
+	 * @param request - the request of the item
+	 * @param position - position of the item in "data.data"
+	 * @return true if recorded
+	 */
+	public boolean recordItem(HarvestItem item, HarvestRequest request, int position) {
+		if (!isFirstFailure(request.getMessageId(), position)) {
+			log.info("Failure already recorded for message: " + request.getMessageId() + ", position: " + position);
+			return false;
+		}
+		if (journal != null) {
+			try {
+				journal.append(item, request);
+			} catch (IOException ioe) {
+				log.error("Failed to journal failed item, it will not survive a restart: " + item.getHid(), ioe);
+			}
+		}
+		store.putItem(item);
+		return true;
+	}
+
+	/**
+	 * Stores the failed request, unless already recorded for the message.
+	 *
+	 * @param json - the request, with its error
+	 * @param messageId - JMS message id of the request, null if not known
+	 * @return true if recorded
+	 */
+	public boolean recordRequest(String json, String messageId) {
+		if (!isFirstFailure(messageId, REQUEST_POSITION)) {
+			log.info("Failure already recorded for message: " + messageId);
+			return false;
+		}
+		store.addRequest(json);
+		return true;
+	}
+
+	/**
+	 * Remembers the failure, so a message harvested again after a rollback is not recorded twice.
+	 *
+	 * @param messageId - JMS message id, null if not known
+	 * @param position - position of the item, REQUEST_POSITION for the request
+	 * @return true if the failure is to be recorded
+	 */
+	private boolean isFirstFailure(String messageId, int position) {
+		if (messageId == null) {
+			return true;
+		}
+		synchronized (recorded) {
+			return recorded.put(messageId + "/" + position, Boolean.TRUE) == null;
+		}
+	}
+}
@@ -0,0 +1,505 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.com.redboxresearchdata.fascinator.harvester.HarvestItem;
+
+import com.googlecode.fascinator.common.JsonObject;
+import com.googlecode.fascinator.common.JsonSimple;
+
+/**
+ * Holds the items and requests that failed to harvest, within a heap budget.
+ *
+ * The JSON text of each failure is kept in heap until the budget is exceeded, then the oldest texts are spilled
+ * to an append-only, memory-mapped file. Only the item fields and the file position of a spilled text stay in heap.
+ * Replaced and removed texts are reclaimed by compacting the file once it reaches its maximum size; if the live texts
+ * still do not fit, the text being spilled is dropped. The number of items and requests is bounded too, as each keeps
+ * its fields in heap: beyond the maximum, the oldest failures are evicted.
+ *
+ * The file only outlives the store as scratch space, it is truncated when the store is opened.
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class FailureStore {
+
+	/** Logging */
+	private static Logger log = LoggerFactory.getLogger(FailureStore.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Default heap budget of the failure texts */
+	public static final long DEFAULT_HEAP_BUDGET = 16L * 1024 * 1024;
+
+	/** Default maximum size of the spill file */
+	public static final long DEFAULT_MAX_FILE_SIZE = 512L * 1024 * 1024;
+
+	/** Default maximum number of failed items and requests */
+	public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+	/** Initial size of the file mapping */
+	private static final int INITIAL_MAPPING = 1024 * 1024;
+
+	/** Estimated heap of an entry, excluding its text */
+	private static final int ENTRY_OVERHEAD = 200;
+
+	private final File file;
+
+	private final long heapBudget;
+
+	private final long maxFileSize;
+
+	private final int maxEntries;
+
+	private RandomAccessFile raf;
+
+	private MappedByteBuffer mapping;
+
+	/** End of the written records */
+	private int position;
+
+	/** Failed items, keyed by hid */
+	private Map<String, Entry> items = new LinkedHashMap<String, Entry>();
+
+	/** Failed requests, in order */
+	private LinkedList<Entry> requests = new LinkedList<Entry>();
+
+	/** Entries with their text in heap, oldest first */
+	private Set<Entry> resident = new LinkedHashSet<Entry>();
+
+	private long heapBytes;
+
+	private long spilled;
+
+	private long dropped;
+
+	private long evicted;
+
+	/** Order of the next entry, to find the oldest of the items and requests */
+	private long sequence;
+
+	/**
+	 * @param file - the spill file, created if necessary
+	 * @param heapBudget - estimated heap of the failure texts, beyond which texts are spilled
+	 * @param maxFileSize - maximum size of the spill file, at most 2GB
+	 */
+	public FailureStore(File file, long heapBudget, long maxFileSize) {
+		this(file, heapBudget, maxFileSize, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param file - the spill file, created if necessary
+	 * @param heapBudget - estimated heap of the failure texts, beyond which texts are spilled
+	 * @param maxFileSize - maximum size of the spill file, at most 2GB
+	 * @param maxEntries - maximum number of failed items and requests, beyond which the oldest are evicted
+	 */
+	public FailureStore(File file, long heapBudget, long maxFileSize, int maxEntries) {
+		this.file = file;
+		this.heapBudget = heapBudget;
+		this.maxFileSize = Math.min(maxFileSize, Integer.MAX_VALUE);
+		this.maxEntries = Math.max(1, maxEntries);
+	}
+
+	/**
+	 * Opens the spill file, discarding any previous content.
+	 *
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public synchronized void open() throws IOException {
+		File dir = file.getParentFile();
+		if (dir != null && !dir.exists()) {
+			dir.mkdirs();
+		}
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		position = 0;
+		map(Math.min(INITIAL_MAPPING, (int) maxFileSize));
+		log.info("Failure store spills to: " + file.getPath());
+	}
+
+	public synchronized void close() {
+		mapping = null;
+		if (raf != null) {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				log.warn("Failed to close failure store file: {}", e.getMessage());
+			}
+			raf = null;
+		}
+	}
+
+	/**
+	 * Stores the failed item, replacing its data with a compact copy.
+	 *
+	 * @param item - item with JsonSimple data
+	 */
+	public synchronized void putItem(HarvestItem item) {
+		String text = item.getData() == null ? null : item.getData().toString();
+		item.setData(null);
+		Entry current = items.get(item.getHid());
+		Entry entry = new Entry(item, text, current == null ? sequence++ : current.sequence);
+		remove(items.put(item.getHid(), entry));
+		evict();
+		admit(entry);
+	}
+
+	/**
+	 * Returns the failed item, with its data.
+	 *
+	 * @param hid
+	 * @return the item, null if not stored
+	 * @throws IOException if the data cannot be read
+	 */
+	public synchronized HarvestItem getItem(String hid) throws IOException {
+		Entry entry = items.get(hid);
+		if (entry == null) {
+			return null;
+		}
+		String text = getText(entry);
+		HarvestItem item = copy(entry.item);
+		item.setData(text == null ? null : new JsonSimple(text));
+		return item;
+	}
+
+	/**
+	 * @param hid
+	 * @return the JSON text of the failed item, null if not stored
+	 */
+	public synchronized String getItemText(String hid) {
+		Entry entry = items.get(hid);
+		return entry == null ? null : getText(entry);
+	}
+
+	/**
+	 * Replaces the JSON text of the failed item.
+	 *
+	 * @param hid
+	 * @param json
+	 * @return false if the item is not stored
+	 * @throws IOException if the text is not valid JSON
+	 */
+	public synchronized boolean setItemText(String hid, String json) throws IOException {
+		Entry current = items.get(hid);
+		if (current == null) {
+			return false;
+		}
+		Entry entry = new Entry(current.item, new JsonSimple(json).toString(), current.sequence);
+		remove(items.put(hid, entry));
+		admit(entry);
+		return true;
+	}
+
+	public synchronized void removeItem(String hid) {
+		remove(items.remove(hid));
+	}
+
+	/**
+	 * @return the hids of the failed items, oldest first
+	 */
+	public synchronized List<String> getItemIds() {
+		return new ArrayList<String>(items.keySet());
+	}
+
+	/**
+	 * @return the failed items, without their data
+	 */
+	public synchronized List<HarvestItem> getItems() {
+		List<HarvestItem> list = new ArrayList<HarvestItem>();
+		for (Entry entry : items.values()) {
+			list.add(copy(entry.item));
+		}
+		return list;
+	}
+
+	/**
+	 * Stores the JSON text of a request that failed before harvesting.
+	 *
+	 * @param json
+	 */
+	public synchronized void addRequest(String json) {
+		Entry entry = new Entry(null, json, sequence++);
+		requests.add(entry);
+		evict();
+		admit(entry);
+	}
+
+	/**
+	 * @return the JSON texts of the failed requests
+	 */
+	public synchronized List<String> getRequests() {
+		List<String> texts = new ArrayList<String>();
+		for (Entry entry : requests) {
+			String text = getText(entry);
+			if (text != null) {
+				texts.add(text);
+			}
+		}
+		return texts;
+	}
+
+	public synchronized void clearRequests() {
+		for (Entry entry : requests) {
+			release(entry);
+		}
+		requests.clear();
+		truncateIfEmpty();
+	}
+
+	public synchronized void clear() {
+		items.clear();
+		requests.clear();
+		resident.clear();
+		heapBytes = 0;
+		position = 0;
+	}
+
+	public synchronized int getItemCount() {
+		return items.size();
+	}
+
+	/**
+	 * @return JSON object of the entry counts, heap estimate and file usage
+	 */
+	public synchronized JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.put("items", items.size());
+		json.put("requests", requests.size());
+		json.put("resident", resident.size());
+		json.put("heapBytes", heapBytes);
+		json.put("heapBudget", heapBudget);
+		json.put("fileBytes", position);
+		json.put("spilled", spilled);
+		json.put("dropped", dropped);
+		json.put("maxEntries", maxEntries);
+		json.put("evicted", evicted);
+		return json;
+	}
+
+	private void admit(Entry entry) {
+		if (entry.text == null) {
+			return;
+		}
+		resident.add(entry);
+		heapBytes += entry.heapSize();
+		Iterator<Entry> oldest = resident.iterator();
+		while (heapBytes > heapBudget && oldest.hasNext()) {
+			Entry next = oldest.next();
+			oldest.remove();
+			heapBytes -= next.heapSize();
+			spill(next);
+		}
+	}
+
+	/**
+	 * Evicts the oldest items and requests beyond the maximum number of entries.
+	 */
+	private void evict() {
+		while (items.size() + requests.size() > maxEntries) {
+			Entry oldestItem = items.isEmpty() ? null : items.values().iterator().next();
+			Entry oldestRequest = requests.peekFirst();
+			Entry oldest;
+			if (oldestRequest == null || (oldestItem != null && oldestItem.sequence < oldestRequest.sequence)) {
+				oldest = items.remove(oldestItem.item.getHid());
+			} else {
+				oldest = requests.removeFirst();
+			}
+			release(oldest);
+			evicted++;
+			log.warn("Failure store is full, evicting the oldest failure: " + oldest.key());
+		}
+	}
+
+	private void remove(Entry entry) {
+		if (entry != null) {
+			release(entry);
+			truncateIfEmpty();
+		}
+	}
+
+	private void release(Entry entry) {
+		if (resident.remove(entry)) {
+			heapBytes -= entry.heapSize();
+		}
+		entry.text = null;
+		entry.length = -1;
+	}
+
+	private void spill(Entry entry) {
+		byte[] bytes = entry.text.getBytes(UTF8);
+		entry.text = null;
+		try {
+			if (!reserve(4 + bytes.length)) {
+				dropped++;
+				log.error("Failure store file is full, dropping the text of: " + entry.key());
+				return;
+			}
+			mapping.position(position);
+			mapping.putInt(bytes.length);
+			mapping.put(bytes);
+			entry.offset = position + 4;
+			entry.length = bytes.length;
+			position += 4 + bytes.length;
+			spilled++;
+		} catch (IOException e) {
+			dropped++;
+			log.error("Failed to spill failure text of: " + entry.key(), e);
+		}
+	}
+
+	private String getText(Entry entry) {
+		if (entry.text != null) {
+			return entry.text;
+		}
+		if (entry.length < 0 || mapping == null) {
+			return null;
+		}
+		byte[] bytes = new byte[entry.length];
+		ByteBuffer view = mapping.duplicate();
+		view.position(entry.offset);
+		view.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Makes room for a record, growing the mapping or compacting the file.
+	 *
+	 * @return false if the live records leave no room
+	 */
+	private boolean reserve(int size) throws IOException {
+		if (mapping == null) {
+			return false;
+		}
+		if ((long) position + size > maxFileSize) {
+			compact();
+			if ((long) position + size > maxFileSize) {
+				return false;
+			}
+		}
+		if (position + size > mapping.capacity()) {
+			long capacity = mapping.capacity();
+			while (capacity < position + size) {
+				capacity *= 2;
+			}
+			map((int) Math.min(capacity, maxFileSize));
+		}
+		return true;
+	}
+
+	/**
+	 * Moves the live records to the start of the file, in file order.
+	 */
+	private void compact() {
+		List<Entry> live = new ArrayList<Entry>();
+		for (Entry entry : items.values()) {
+			if (entry.text == null && entry.length >= 0) {
+				live.add(entry);
+			}
+		}
+		for (Entry entry : requests) {
+			if (entry.text == null && entry.length >= 0) {
+				live.add(entry);
+			}
+		}
+		Collections.sort(live, new Comparator<Entry>() {
+			public int compare(Entry a, Entry b) {
+				return a.offset < b.offset ? -1 : (a.offset == b.offset ? 0 : 1);
+			}
+		});
+		int target = 0;
+		ByteBuffer source = mapping.duplicate();
+		for (Entry entry : live) {
+			int start = entry.offset - 4;
+			if (start != target) {
+				byte[] record = new byte[4 + entry.length];
+				source.position(start);
+				source.get(record);
+				mapping.position(target);
+				mapping.put(record);
+			}
+			entry.offset = target + 4;
+			target += 4 + entry.length;
+		}
+		log.info("Compacted failure store file from " + position + " to " + target + " bytes");
+		position = target;
+	}
+
+	private void truncateIfEmpty() {
+		if (items.isEmpty() && requests.isEmpty()) {
+			position = 0;
+		}
+	}
+
+	private void map(int capacity) throws IOException {
+		mapping = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+	}
+
+	private static HarvestItem copy(HarvestItem source) {
+		HarvestItem item = new HarvestItem(source.getOid(), null, source.isShouldBeTransformed(), source.isValid(), source.isHarvested());
+		item.setHid(source.getHid());
+		item.setHrid(source.getHrid());
+		item.setHandledAs(source.getHandledAs());
+		return item;
+	}
+
+	/**
+	 * A failure, with its text either in heap or at a position of the file.
+	 */
+	private static class Entry {
+		private final HarvestItem item;
+		private final long sequence;
+		private String text;
+		private int offset;
+		private int length = -1;
+
+		Entry(HarvestItem item, String text, long sequence) {
+			this.item = item;
+			this.text = text;
+			this.sequence = sequence;
+		}
+
+		long heapSize() {
+			return ENTRY_OVERHEAD + 2L * text.length();
+		}
+
+		String key() {
+			return item == null ? "failed request" : item.getHid();
+		}
+	}
+}
@@ -0,0 +1,291 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.com.redboxresearchdata.fascinator.harvester.BaseJsonHarvester;
+import au.com.redboxresearchdata.fascinator.harvester.StripedOidLock;
+
+import com.googlecode.fascinator.api.PluginException;
+import com.googlecode.fascinator.api.harvester.Harvester;
+import com.googlecode.fascinator.api.indexer.Indexer;
+import com.googlecode.fascinator.api.storage.Storage;
+
+/**
+ * Registry of the JSON harvesters that have a harvest config, keyed by type.
+ *
+ * The harvest config of a type is "{portal.harvestFiles}/{type}.json". The directory is resolved once on load,
+ * and then watched for changes: a created or modified config initialises a new harvester instance that replaces
+ * the current one, and a deleted config removes the type.
+ *
+ * Each type keeps one OID lock for the life of the registry, handed to every harvester instance of the type, so requests
+ * still running on a replaced harvester and requests on its replacement exclude each other.
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class HarvestConfigRegistry implements Runnable {
+
+	/** Logging */
+	private static Logger log = LoggerFactory.getLogger(HarvestConfigRegistry.class);
+
+	private static final String CONFIG_EXTENSION = "json";
+
+	/** The harvestFiles directory */
+	private File harvestFilesDir;
+
+	/** Harvester plugins, keyed by id */
+	private Map<String, Harvester> plugins;
+
+	private Storage storage;
+
+	private Indexer indexer;
+
+	/** Initialised harvesters, keyed by type */
+	private Map<String, RegisteredHarvester> registry;
+
+	/** OID locks, keyed by type */
+	private Map<String, StripedOidLock> oidLocks;
+
+	private WatchService watchService;
+
+	private Thread watchThread;
+
+	public HarvestConfigRegistry(File harvestFilesDir, Map<String, Harvester> plugins, Storage storage, Indexer indexer) {
+		this.harvestFilesDir = harvestFilesDir;
+		this.plugins = plugins;
+		this.storage = storage;
+		this.indexer = indexer;
+		registry = new ConcurrentHashMap<String, RegisteredHarvester>();
+		oidLocks = new ConcurrentHashMap<String, StripedOidLock>();
+	}
+
+	/**
+	 * Initialises the JSON harvester plugins that have a harvest config.
+	 *
+	 * @throws PluginException if a harvester failed to initialise
+	 */
+	public void load() throws PluginException {
+		log.debug("Dumping harvesters:" + plugins.size());
+		for (String hid : plugins.keySet()) {
+			Harvester hv = plugins.get(hid);
+			log.debug("Harvester id: " + hid + ", Name: " +hv.getName());
+			if (hv instanceof BaseJsonHarvester) {
+				File harvestConfigFile = getConfigFile(hid);
+				if (!harvestConfigFile.exists()) {
+					log.error("Harvest config file not found '"+harvestConfigFile.getPath()+"', please check the set up.");
+					continue;
+				}
+				log.info("Using config file path:" + harvestConfigFile.getPath());
+				BaseJsonHarvester harvester = (BaseJsonHarvester) hv;
+				long lastModified = harvestConfigFile.lastModified();
+				initHarvester(hid, harvester, harvestConfigFile);
+				registry.put(hid, new RegisteredHarvester(harvester, harvestConfigFile, lastModified));
+			}
+		}
+	}
+
+	/**
+	 * Starts watching the harvestFiles directory for config changes.
+	 *
+	 * @throws IOException if the directory cannot be watched
+	 */
+	public void startWatching() throws IOException {
+		watchService = FileSystems.getDefault().newWatchService();
+		harvestFilesDir.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		watchThread = new Thread(this, "HarvestConfigRegistry");
+		watchThread.setDaemon(true);
+		watchThread.start();
+		log.info("Watching harvest configs in: " + harvestFilesDir.getPath());
+	}
+
+	/**
+	 * Stops watching, and shuts down the registered harvesters.
+	 */
+	public void stop() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				log.warn("Failed to close watch service: {}", e.getMessage());
+			}
+		}
+		for (RegisteredHarvester registered : registry.values()) {
+			shutdownHarvester(registered.harvester);
+		}
+	}
+
+	public void run() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = watchService.take();
+			} catch (InterruptedException e) {
+				return;
+			} catch (ClosedWatchServiceException e) {
+				return;
+			}
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					for (String type : plugins.keySet()) {
+						refresh(type);
+					}
+					continue;
+				}
+				String fileName = ((Path) event.context()).toString();
+				if (CONFIG_EXTENSION.equalsIgnoreCase(FilenameUtils.getExtension(fileName))) {
+					refresh(FilenameUtils.getBaseName(fileName));
+				}
+			}
+			if (!key.reset()) {
+				log.error("Harvest config directory is no longer accessible, stopped watching: " + harvestFilesDir.getPath());
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Reloads the harvester of the type if its config was created, modified or deleted.
+	 *
+	 * A new harvester instance is initialised with the changed config, so requests in progress keep the previous one.
+	 * If the new config fails to initialise, the previous harvester stays registered.
+	 *
+	 * @param type
+	 */
+	protected synchronized void refresh(String type) {
+		Harvester plugin = plugins.get(type);
+		if (!(plugin instanceof BaseJsonHarvester)) {
+			return;
+		}
+		File harvestConfigFile = getConfigFile(type);
+		RegisteredHarvester current = registry.get(type);
+		if (!harvestConfigFile.exists()) {
+			if (current != null) {
+				log.info("Harvest config removed, unregistering type: " + type);
+				registry.remove(type);
+				shutdownHarvester(current.harvester);
+			}
+			return;
+		}
+		long lastModified = harvestConfigFile.lastModified();
+		if (current != null && current.lastModified == lastModified) {
+			return;
+		}
+		log.info("Harvest config changed, reloading type: " + type);
+		try {
+			BaseJsonHarvester harvester = (BaseJsonHarvester) plugin.getClass().newInstance();
+			initHarvester(type, harvester, harvestConfigFile);
+			registry.put(type, new RegisteredHarvester(harvester, harvestConfigFile, lastModified));
+			if (current != null) {
+				shutdownHarvester(current.harvester);
+			}
+		} catch (Exception e) {
+			log.error("Failed to reload harvest config '" + harvestConfigFile.getPath() + "', keeping the current one.", e);
+		}
+	}
+
+	/**
+	 * Returns the harvester of the type.
+	 *
+	 * @param type
+	 * @return the harvester, null if the type has no harvest config
+	 */
+	public BaseJsonHarvester getHarvester(String type) {
+		RegisteredHarvester registered = registry.get(type);
+		return registered == null ? null : registered.harvester;
+	}
+
+	/**
+	 * Returns the harvest config file of the type.
+	 *
+	 * @param type
+	 * @return the config file, null if the type has no harvest config
+	 */
+	public File getHarvestConfigFile(String type) {
+		RegisteredHarvester registered = registry.get(type);
+		return registered == null ? null : registered.configFile;
+	}
+
+	/**
+	 * @return the registered harvesters, keyed by type
+	 */
+	public Map<String, BaseJsonHarvester> getHarvesters() {
+		Map<String, BaseJsonHarvester> harvesters = new HashMap<String, BaseJsonHarvester>();
+		for (Map.Entry<String, RegisteredHarvester> entry : registry.entrySet()) {
+			harvesters.put(entry.getKey(), entry.getValue().harvester);
+		}
+		return Collections.unmodifiableMap(harvesters);
+	}
+
+	private File getConfigFile(String type) {
+		return new File(harvestFilesDir, type + "." + CONFIG_EXTENSION);
+	}
+
+	private void initHarvester(String type, BaseJsonHarvester harvester, File harvestConfigFile) throws PluginException {
+		StripedOidLock oidLock = oidLocks.get(type);
+		if (oidLock == null) {
+			oidLock = new StripedOidLock();
+			oidLocks.put(type, oidLock);
+		}
+		harvester.setOidLock(oidLock);
+		harvester.setStorage(storage);
+		harvester.setIndexer(indexer);
+		harvester.init(harvestConfigFile);
+	}
+
+	private void shutdownHarvester(BaseJsonHarvester harvester) {
+		try {
+			harvester.shutdown();
+		} catch (PluginException e) {
+			log.warn("Failed to shutdown harvester: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * A harvester with the config it was initialised with.
+	 */
+	private static class RegisteredHarvester {
+		private final BaseJsonHarvester harvester;
+		private final File configFile;
+		private final long lastModified;
+
+		RegisteredHarvester(BaseJsonHarvester harvester, File configFile, long lastModified) {
+			this.harvester = harvester;
+			this.configFile = configFile;
+			this.lastModified = lastModified;
+		}
+	}
+}
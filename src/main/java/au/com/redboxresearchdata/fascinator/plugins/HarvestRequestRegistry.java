@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.plugins;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import au.com.redboxresearchdata.fascinator.harvester.HarvestRequest;
+
+import com.googlecode.fascinator.common.JsonObject;
+
+/**
+ * The recent harvest requests, keyed by request id.
+ *
+ * Requests are kept in the order received. Registering a request evicts the requests older than the TTL,
+ * then the oldest requests beyond the maximum size. Request data is only kept for requests with failures, see retainData().
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class HarvestRequestRegistry {
+
+	/** Default maximum number of requests */
+	public static final int DEFAULT_MAX_SIZE = 10000;
+
+	/** Default time a request is kept */
+	public static final long DEFAULT_TTL_MILLIS = 60L * 60 * 1000;
+
+	private final int maxSize;
+
+	private final long ttlMillis;
+
+	private final Map<String, HarvestRequest> requests = new LinkedHashMap<String, HarvestRequest>();
+
+	private long evicted;
+
+	/**
+	 * @param maxSize - maximum number of requests
+	 * @param ttlMillis - time a request is kept after it was received
+	 */
+	public HarvestRequestRegistry(int maxSize, long ttlMillis) {
+		this.maxSize = Math.max(1, maxSize);
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Registers the request, evicting expired and excess requests.
+	 *
+	 * @param request
+	 */
+	public synchronized void register(HarvestRequest request) {
+		requests.put(request.getRequestId(), request);
+		evict(System.currentTimeMillis());
+	}
+
+	/**
+	 * @param requestId
+	 * @return the request, null if unknown or evicted
+	 */
+	public synchronized HarvestRequest get(String requestId) {
+		return requests.get(requestId);
+	}
+
+	/**
+	 * Keeps the data of a request that had failures, for as long as the request is registered.
+	 *
+	 * @param request
+	 * @param compactJson - the data, serialized without indentation
+	 */
+	public synchronized void retainData(HarvestRequest request, String compactJson) {
+		if (requests.containsKey(request.getRequestId())) {
+			request.setData(compactJson);
+		}
+	}
+
+	public synchronized void clear() {
+		requests.clear();
+	}
+
+	public synchronized int size() {
+		return requests.size();
+	}
+
+	/**
+	 * Removes the requests received before the TTL, then the oldest requests beyond the maximum size.
+	 *
+	 * @param now
+	 */
+	protected void evict(long now) {
+		Iterator<HarvestRequest> oldest = requests.values().iterator();
+		while (oldest.hasNext()) {
+			HarvestRequest request = oldest.next();
+			if (requests.size() <= maxSize && now - request.getReceived() <= ttlMillis) {
+				break;
+			}
+			oldest.remove();
+			evicted++;
+		}
+	}
+
+	/**
+	 * @return JSON object of the request count, requests holding data, and evicted requests
+	 */
+	public synchronized JsonObject toJson() {
+		int withData = 0;
+		for (HarvestRequest request : requests.values()) {
+			if (request.getData() != null) {
+				withData++;
+			}
+		}
+		JsonObject json = new JsonObject();
+		json.put("requests", requests.size());
+		json.put("withData", withData);
+		json.put("maxSize", maxSize);
+		json.put("ttlMillis", ttlMillis);
+		json.put("evicted", evicted);
+		return json;
+	}
+}
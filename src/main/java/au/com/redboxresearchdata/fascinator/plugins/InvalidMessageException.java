@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.plugins;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a message is not valid JSON. Harvesting it again would fail the same way, so the message is dropped
+ * rather than rolled back.
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class InvalidMessageException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public InvalidMessageException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
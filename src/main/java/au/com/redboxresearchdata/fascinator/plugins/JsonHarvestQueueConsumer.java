@@ -19,19 +19,28 @@ package au.com.redboxresearchdata.fascinator.plugins;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.DeliveryMode;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
 import javax.jms.MessageProducer;
 import javax.jms.Session;
 import javax.jms.TextMessage;
@@ -43,13 +52,21 @@ import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.parser.ContainerFactory;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import au.com.redboxresearchdata.fascinator.harvester.BaseJsonHarvester;
+import au.com.redboxresearchdata.fascinator.harvester.HarvestContext;
 import au.com.redboxresearchdata.fascinator.harvester.HarvestItem;
+import au.com.redboxresearchdata.fascinator.harvester.HarvestMetrics;
 import au.com.redboxresearchdata.fascinator.harvester.HarvestRequest;
+import au.com.redboxresearchdata.fascinator.harvester.ObjectIdIndex;
 import au.com.redboxresearchdata.fascinator.jmx.JsonHarvestQueueMXBean;
 
 import com.googlecode.fascinator.api.PluginException;
@@ -60,6 +77,7 @@ import com.googlecode.fascinator.api.indexer.Indexer;
 import com.googlecode.fascinator.api.storage.Storage;
 import com.googlecode.fascinator.api.storage.StorageException;
 import com.googlecode.fascinator.api.transformer.TransformerException;
+import com.googlecode.fascinator.common.FascinatorHome;
 import com.googlecode.fascinator.common.JsonObject;
 import com.googlecode.fascinator.common.JsonSimple;
 import com.googlecode.fascinator.common.JsonSimpleConfig;
@@ -72,11 +90,32 @@ import com.googlecode.fascinator.common.messaging.MessagingServices;
  * 
  * Basic behavior is:
  * 
- * 1. Load up the harvesters.
+ * 1. Load up the harvesters, watching their harvest config files for changes.
  * 2. Wait for incoming JSON.
  * 3. Determine if incoming JSON has type.
  * 4. Process the JSON document.
- * 5. Determine if there are any failed items, putting these into the "failed" map, which can be inspected and reprocessed through JMX.
+ * 5. Determine if there are any failed items, putting these into the failure store, which can be inspected and reprocessed through JMX.
+ *  
+ * Messages are consumed by a pool of workers, each with its own JMS session, consumer and event producer. 
+ * The pool size is set by "config.consumers" in the listener configuration, defaulting to a single worker.
+ *  
+ * When "config.streaming" is true, messages are parsed as a stream and the items of "data.data" are harvested one at a time, 
+ * without building the whole message in memory. 
+ *  
+ * When "config.toolChainBatchSize" is greater than 1, the harvested objects of a request are put on the toolchain 
+ * in messages of up to that many objects, listed in "oids" instead of "oid". The toolchain entry must support this format.
+ *  
+ * When "config.eventMode" is "request", a summary event is sent per request instead of an event per item, 
+ * split into chunks of up to "config.eventChunkSize" items if set.
+ *  
+ * When "config.transacted" is true, each worker pulls up to "config.batchSize" messages, waiting up to "config.batchWaitMillis" 
+ * after the first, and harvests them in one transaction of its session. Events and toolchain messages are sent in 
+ * the same transaction, which is committed once for the batch. If harvesting fails, the batch is rolled back and its 
+ * messages are harvested again one per transaction, so only the failing message is redelivered. Failures are recorded 
+ * once per JMS message id, however often the message is harvested.
+ *  
+ * Messages are either TextMessages, or BytesMessages of UTF-8 JSON, optionally compressed as declared by 
+ * the "contentEncoding" property ("gzip" or "deflate").
  *  
  * 
  * @author Shilo Banihit
@@ -99,11 +138,56 @@ public class JsonHarvestQueueConsumer implements GenericListener, JsonHarvestQue
     /** The item was harvested */
     private static final String EVENT_PROCESS_HARVESTED = "proc_harvested";
     
+    /** The item was harvested, and is unchanged from the stored object */
+    private static final String EVENT_PROCESS_UNCHANGED = "proc_unchanged";
+    
     /** The item failed validation */
     private static final String EVENT_PROCESS_INVALID = "proc_invalid";
     
     /** The item failed to be processed */
     private static final String EVENT_PROCESS_FAIL = "proc_fail";
+    
+    /** The message was rejected before harvesting, e.g. its content encoding is not supported */
+    private static final String EVENT_PROCESS_REJECTED = "proc_rejected";
+    
+    /** Summary of the items of a request */
+    private static final String EVENT_PROCESS_SUMMARY = "proc_summary";
+    
+    /** Event modes: an event per item, or a summary per request */
+    public static final String EVENT_MODE_ITEM = "item",
+    						   EVENT_MODE_REQUEST = "request";
+    
+    /** Default number of consumer workers */
+    private static final int DEFAULT_CONSUMER_COUNT = 1;
+    
+    /** Default number of objects per toolchain message */
+    private static final int DEFAULT_TOOL_CHAIN_BATCH_SIZE = 1;
+    
+    /** Default maximum number of messages per transaction */
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    
+    /** Default time to wait for a transaction's messages */
+    private static final long DEFAULT_BATCH_WAIT_MILLIS = 1000;
+    
+    /** Default number of failed items replayed concurrently */
+    private static final int DEFAULT_REPLAY_THREADS = 4;
+    
+    /** Default maximum number of failed items replayed per second */
+    private static final int DEFAULT_REPLAY_RATE = 50;
+    
+    /** Maximum time to wait for the items being replayed when stopping */
+    private static final long REPLAY_STOP_WAIT_MILLIS = 10000;
+    
+    /** Parses messages into the containers of JsonSimple */
+    private static final ContainerFactory JSON_CONTAINERS = new ContainerFactory() {
+		public Map createObjectContainer() {
+			return new JsonObject();
+		}
+
+		public List creatArrayContainer() {
+			return new JSONArray();
+		}
+	};
 
     /** Logging */
     private static Logger log = LoggerFactory.getLogger(JsonHarvestQueueConsumer.class);
@@ -114,8 +198,8 @@ public class JsonHarvestQueueConsumer implements GenericListener, JsonHarvestQue
     /** JMS connection */
     private Connection connection;
 
-    /** JMS Session */
-    private Session session;
+    /** Consumer workers, each owning a JMS session */
+    private List<HarvestWorker> workers;
 
     /** JMS Topic */
     // private Topic broadcast;
@@ -126,12 +210,6 @@ public class JsonHarvestQueueConsumer implements GenericListener, JsonHarvestQue
     /** Storage */
     private Storage storage;
 
-    /** Message Consumer instance */
-    private MessageConsumer consumer;
-
-    /** Message Producer instance */
-    private MessageProducer producer;
-
     /** Name identifier to be put in the queue */
     private String name;
 
@@ -149,13 +227,56 @@ public class JsonHarvestQueueConsumer implements GenericListener, JsonHarvestQue
     
     private JsonSimpleConfig config;
     
-    private Map<String, HarvestItem> failedJsonMap;
+    /** Number of consumer workers */
+    private int consumerCount;
+    
+    /** If messages are harvested while being parsed */
+    private boolean streaming;
+    
+    /** Maximum number of objects per toolchain message */
+    private int toolChainBatchSize;
+    
+    /** If a summary event is sent per request instead of an event per item */
+    private boolean summaryEvents;
+    
+    /** Maximum number of items per summary event, 0 for no limit */
+    private int eventChunkSize;
+    
+    /** If messages are pulled in batches on a transacted session */
+    private boolean transacted;
     
-    private List<String> failedJsonList;
+    /** Maximum number of messages per transaction */
+    private int batchSize;
     
-    private Map<String, HarvestRequest> harvestRequests;
+    /** Maximum time to wait for a transaction's messages */
+    private long batchWaitMillis;
     
-    private Map<String, Harvester> harvesters;
+    /** Failed items and requests */
+    private FailureStore failureStore;
+    
+    /** Durable record of the failed items, null if disabled */
+    private FailureJournal failureJournal;
+    
+    /** Records failures in the store and journal, once per message */
+    private FailureRecorder failureRecorder;
+    
+    /** Number of failed items replayed concurrently */
+    private int replayThreads;
+    
+    /** Maximum number of failed items replayed per second */
+    private int replayRate;
+    
+    /** The current or last replay */
+    private FailureReplay replay;
+    
+    /** Pipeline metrics, shared with the harvesters */
+    private HarvestMetrics metrics = HarvestMetrics.getInstance();
+    
+    /** Recent harvest requests */
+    private HarvestRequestRegistry harvestRequests;
+    
+    /** JSON harvesters with a harvest config, keyed by type */
+    private HarvestConfigRegistry harvestConfigRegistry;
 
     public JsonHarvestQueueConsumer() {
     	 thread = new Thread(this, LISTENER_ID);    	 
@@ -179,27 +300,34 @@ public class JsonHarvestQueueConsumer implements GenericListener, JsonHarvestQue
             ActiveMQConnectionFactory connectionFactory =
                     new ActiveMQConnectionFactory(brokerUrl);
             connection = connectionFactory.createConnection();
-
-            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-
-            consumer = session.createConsumer(session.createQueue(QUEUE_ID));            
-            consumer.setMessageListener(this);
-                                    
-            producer = session.createProducer(session.createTopic(EVENT_TOPIC_ID));
-            producer.setDeliveryMode(DeliveryMode.PERSISTENT);            
-
-            connection.start();
             
             toolChainEntry = globalConfig.getString(DEFAULT_TOOL_CHAIN_QUEUE,
                     "messaging", "toolChainQueue");
             
-            failedJsonMap = new HashMap<String, HarvestItem>();
-            failedJsonList = new ArrayList<String>();
-            harvestRequests = new HashMap<String, HarvestRequest>();
+            try {
+            	failureStore.open();
+            } catch (IOException ioe) {
+            	log.error("Failed to open failure store, failed texts beyond the heap budget will be dropped: {}", ioe.getMessage());
+            }
+            openFailureJournal();
+
+            // one session per worker, sessions are not shared between threads
+            workers = new ArrayList<HarvestWorker>();
+            for (int i = 0; i < consumerCount; i++) {
+            	workers.add(new HarvestWorker(connection));
+            }
+
+            connection.start();
+            for (HarvestWorker worker : workers) {
+            	worker.start();
+            }
+            log.info("'{}' started with {} consumer(s)", name, consumerCount);
+            
             // registering managed bean...
             MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
             ObjectName mxbeanName = new ObjectName("au.com.redboxresearchdata.fascinator.plugins:type=JsonHarvestQueue");
             mbs.registerMBean(this, mxbeanName);
+            mbs.registerMBean(metrics, new ObjectName("au.com.redboxresearchdata.fascinator.plugins:type=JsonHarvestMetrics"));
             log.info("'{}' is running...", name);            
         } catch (JMSException ex) {
             log.error("Error starting message thread!", ex);
@@ -230,42 +358,16 @@ public class JsonHarvestQueueConsumer implements GenericListener, JsonHarvestQue
      */
     public void stop() throws Exception {
         log.info("Stopping {}...", name);
-        if (indexer != null) {
-            try {
-                indexer.shutdown();
-            } catch (PluginException pe) {
-                log.error("Failed to shutdown indexer: {}", pe.getMessage());
-                throw pe;
-            }
+        // stop taking work first, so nothing is harvested against a closed harvester, storage or failure store
+        if (replay != null) {
+        	replay.cancel();
+        	if (!replay.awaitTermination(REPLAY_STOP_WAIT_MILLIS)) {
+        		log.warn("Failed items still replaying after {} ms, stopping anyway.", REPLAY_STOP_WAIT_MILLIS);
+        	}
         }
-        if (storage != null) {
-            try {
-                storage.shutdown();
-            } catch (PluginException pe) {
-                log.error("Failed to shutdown storage: {}", pe.getMessage());
-                throw pe;
-            }
-        }
-        if (producer != null) {
-            try {
-                producer.close();
-            } catch (JMSException jmse) {
-                log.warn("Failed to close producer: {}", jmse);
-            }
-        }
-        if (consumer != null) {
-            try {
-                consumer.close();
-            } catch (JMSException jmse) {
-                log.warn("Failed to close consumer: {}", jmse.getMessage());
-                throw jmse;
-            }
-        }
-        if (session != null) {
-            try {
-                session.close();
-            } catch (JMSException jmse) {
-                log.warn("Failed to close consumer session: {}", jmse);
+        if (workers != null) {
+            for (HarvestWorker worker : workers) {
+            	worker.close();
             }
         }
         if (connection != null) {
@@ -278,6 +380,34 @@ public class JsonHarvestQueueConsumer implements GenericListener, JsonHarvestQue
         if (messaging != null) {
             messaging.release();
         }
+        if (harvestConfigRegistry != null) {
+        	harvestConfigRegistry.stop();
+        }
+        try {
+	        if (indexer != null) {
+	            try {
+	                indexer.shutdown();
+	            } catch (PluginException pe) {
+	                log.error("Failed to shutdown indexer: {}", pe.getMessage());
+	                throw pe;
+	            }
+	        }
+	        if (storage != null) {
+	            try {
+	                storage.shutdown();
+	            } catch (PluginException pe) {
+	                log.error("Failed to shutdown storage: {}", pe.getMessage());
+	                throw pe;
+	            }
+	        }
+        } finally {
+	        if (failureJournal != null) {
+	        	failureJournal.close();
+	        }
+	        if (failureStore != null) {
+	        	failureStore.close();
+	        }
+        }
     }
     /**
      * Harvests JSON objects as messages.
@@ -287,122 +417,354 @@ public class JsonHarvestQueueConsumer implements GenericListener, JsonHarvestQue
      * "type" -  indicates which harvest config file to use, maps to "{portal.harvestFiles}/{type}.json"
      */
 	public void onMessage(Message message) {
+		onMessage(message, null);
+	}
+	
+	/**
+	 * Harvests the message on behalf of a worker, events are sent through the worker's producer.
+	 * 
+	 * @param message
+	 * @param worker - the receiving worker, null if not received from the queue
+	 */
+	protected void onMessage(Message message, HarvestWorker worker) {
         try {
-        	log.info("Got message..");
-        	String text = ((TextMessage) message).getText();
-        	log.info(name + ", got message: " + text);
-			processJsonText(text);
+        	processMessage(message, worker);
         } catch (JMSException jmse) {
             log.error("Failed to send/receive message: {}", jmse.getMessage());
-        } catch (IOException ioe) {
-            log.error("Failed to parse message: {}", ioe.getMessage());
+        } catch (InvalidMessageException ime) {
+            log.error("Failed to parse message: {}", ime.getMessage());
         } catch (Exception ex) {
         	log.error("Failed to harvest object: {}", ex.getMessage());
         	log.error("Stack trace:", ex);
         }
 	}
 
+	/**
+	 * Harvests the message, throwing any failure.
+	 * 
+	 * @param message
+	 * @param worker - the receiving worker, null if not received from the queue
+	 * @throws InvalidMessageException if the message is not valid JSON
+	 */
+	protected void processMessage(Message message, HarvestWorker worker) throws Exception {
+    	log.info("Got message..");
+    	if (message instanceof BytesMessage) {
+    		processJsonBytes((BytesMessage) message, worker);
+    		return;
+    	}
+    	String text = ((TextMessage) message).getText();
+    	log.info(name + ", got message: " + text);
+		processJsonText(text, worker);
+	}
+	
 	protected void processJsonText(String text) throws IOException,
 			HarvesterException, TransformerException, StorageException,
 			MessagingException, Exception {
-		JsonSimple json = new JsonSimple(text);
-		processJson(json);
+		processJsonText(text, null);
+	}
+	
+	protected void processJsonText(String text, HarvestWorker worker) throws IOException,
+			HarvesterException, TransformerException, StorageException,
+			MessagingException, Exception {
+		if (streaming) {
+			processJsonStream(new StringReader(text), worker);
+			return;
+		}
+		long start = metrics.start();
+		JsonSimple json = parseMessage(new StringReader(text));
+		metrics.record(HarvestMetrics.TYPE_ANY, HarvestMetrics.STAGE_PARSE, start);
+		processJson(json, worker);
+	}
+	
+	/**
+	 * Parses the whole message, telling a message that is not valid JSON from a failure to read it.
+	 * 
+	 * @param reader
+	 * @return the message
+	 * @throws InvalidMessageException if the message is not a valid JSON object
+	 * @throws IOException if the message cannot be read
+	 */
+	private JsonSimple parseMessage(Reader reader) throws IOException {
+		Object message;
+		try {
+			message = new JSONParser().parse(reader, JSON_CONTAINERS);
+		} catch (ParseException pe) {
+			throw new InvalidMessageException("Invalid JSON message: " + pe.getMessage(), pe);
+		}
+		if (!(message instanceof JsonObject)) {
+			throw new InvalidMessageException("Invalid JSON message: not an object", null);
+		}
+		return new JsonSimple((JsonObject) message);
+	}
+	
+	/**
+	 * Harvests the body of a BytesMessage, decompressing it while it is read.
+	 * 
+	 * @param message
+	 * @param worker - worker to send events through, null to use the messaging services
+	 */
+	protected void processJsonBytes(BytesMessage message, HarvestWorker worker) throws Exception {
+		String encoding = message.getStringProperty(BytesMessageInputStream.CONTENT_ENCODING_PROPERTY);
+		log.info(name + ", got bytes message, length: " + message.getBodyLength() + ", encoding: " + encoding);
+		if (!BytesMessageInputStream.isSupportedEncoding(encoding)) {
+			rejectMessage("Unsupported content encoding: " + encoding, message, worker);
+			return;
+		}
+		InputStream in = BytesMessageInputStream.open(message);
+		try {
+			if (streaming) {
+				processJsonStream(new InputStreamReader(in, "UTF-8"), worker);
+			} else {
+				long start = metrics.start();
+				JsonSimple json = parseMessage(new InputStreamReader(in, "UTF-8"));
+				metrics.record(HarvestMetrics.TYPE_ANY, HarvestMetrics.STAGE_PARSE, start);
+				processJson(json, worker);
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+	
+	/**
+	 * Harvests the message while parsing it, item by item. 
+	 * 
+	 * Each item is harvested, put on the toolchain and its event sent before the next item is read.
+	 * Items are processed sequentially, regardless of the harvester's parallelism.
+	 * If "data.data" is not an array, the message is processed as a whole. An empty array is an empty harvest list.
+	 * 
+	 * @param reader - the message
+	 * @param worker - worker to send events through, null to use the messaging services
+	 */
+	protected void processJsonStream(Reader reader, HarvestWorker worker) throws Exception {
+		StreamingHarvest harvest = new StreamingHarvest(worker);
+		StreamingHarvestParser parser = new StreamingHarvestParser(harvest);
+		parser.parse(reader);
+		if (!parser.hasItemArray()) {
+			processJson(new JsonSimple(parser.getMessage()), worker);
+			return;
+		}
+		harvest.finish(parser.getMessage());
 	}
 	
 	protected void logFailedRequest(String errmsg, JsonSimple json) {
+		logFailedRequest(errmsg, json, null);
+	}
+	
+	/**
+	 * Logs the request and stores it as failed, unless already stored for the message.
+	 * 
+	 * @param errmsg
+	 * @param json
+	 * @param messageId - JMS message id of the request, null if not known
+	 */
+	protected void logFailedRequest(String errmsg, JsonSimple json, String messageId) {
 		String text = json.toString();
 		json.getJsonObject().put("error",  errmsg);
 		log.error( errmsg + text);
-		failedJsonList.add(json.toString());
+		failureRecorder.recordRequest(json.toString(), messageId);
 	}
 
-	protected synchronized void processJson(JsonSimple json)
+	protected void processJson(JsonSimple json)
+			throws IOException, PluginException, HarvesterException,
+			TransformerException, StorageException, MessagingException,
+			Exception {
+		processJson(json, null);
+	}
+	
+	/**
+	 * Processes the harvest request. Safe to call from several workers at once. 
+	 * 
+	 * @param json - the harvest request
+	 * @param worker - worker to send events through, null to use the messaging services
+	 */
+	protected void processJson(JsonSimple json, HarvestWorker worker)
 			throws IOException, PluginException, HarvesterException,
 			TransformerException, StorageException, MessagingException,
 			Exception {
 		// prepare for the harvest
-		String harvestRequestId = getHarvestRequestId();
-		String type = json.getString(null, "type");
-		String harvesterId = json.getString(null, "harvesterId");
-		String hostName = json.getString(null, "hostName");
-		String hostIp = json.getString(null, "hostIp");
-		log.debug("Got request to process JSON of type:" + type + ", harvesterId:" + harvesterId + ", hostName:" + hostName + ", hostIp:"+ hostIp +" . Assigning harvestRequestId:" + harvestRequestId);
-		if (type == null) {
-			logFailedRequest("No type specified, ignoring object....", json);
-			return;
-		}
-		if (harvesterId == null) {
-			logFailedRequest("No harvester specified, ignoring object....", json);
+		HarvestRequest harvestRequest = createHarvestRequest(json, worker);
+		if (harvestRequest == null) {
 			return;
 		}
-
-		HarvestRequest harvestRequest = new HarvestRequest(harvestRequestId, harvesterId, hostName, hostIp, System.currentTimeMillis());
-		harvestRequests.put(harvestRequestId, harvestRequest);
-		
-		String configFilePath = globalConfig.getString(null, "portal", "harvestFiles") + "/" + type + ".json";
-		
-		File harvestConfigFile = new File(configFilePath);
-		if (!harvestConfigFile.exists()) {
-			logFailedRequest("Harvest config file not found, please check the set up. Ignoring object...", json);
+		String type = harvestRequest.getType();
+		String harvestRequestId = harvestRequest.getRequestId();
+		BaseJsonHarvester harvester = getHarvester(harvestRequest, json);
+		if (harvester == null) {
 			return;
 		}
-		BaseJsonHarvester harvester = (BaseJsonHarvester) harvesters.get(type);
 		
 		JsonSimple data = new JsonSimple(json.getObject("data"));
-		harvestRequest.setData(data.toString(true));
-		log.debug("Data json is:" + harvestRequest.getData());
-		List<HarvestItem> harvestList = harvester.harvest(data, type, harvestRequestId);
-		log.debug("Number of Objects in list:" + harvester.getItemList().size());
+		if (log.isDebugEnabled()) {
+			log.debug("Data json is:" + data.toString(true));
+		}
+		HarvestContext context = harvester.harvest(data, type, harvestRequestId);
+		List<HarvestItem> harvestList = context.getHarvestList();
+		List<HarvestItem> itemList = context.getItemList();
+		List<String> successOidList = context.getSuccessOidList();
+		JsonSimple rulesConfig = context.getRulesConfig();
+		log.debug("Number of Objects in list:" + itemList.size());
 		log.debug("Number of Objects in harvest list:" + harvestList.size());
-		log.debug("Number of Objects successfully harvested:" + harvester.getSuccessOidList().size());
-		List<JsonObject> eventJsonList = new ArrayList<JsonObject>();
+		log.debug("Number of Objects successfully harvested:" + successOidList.size());
+		HarvestEventSink events = new HarvestEventSink(harvestRequest, worker);
+		ToolChainBatch toolChainBatch = new ToolChainBatch(type, harvester.getCommit(), rulesConfig, worker);
 		for (HarvestItem item : harvestList) {
 			if (item.isShouldBeTransformed()) {
 				String oid = item.getOid();
 				// @TODO: determine if parking and ignoring should be in the audit log / object history.
-				transformObject(oid, harvester.getCommit(), harvester.getRulesConfig());
+				toolChainBatch.add(oid);
 				log.info("JSON Object on the toolchain, oid:" + oid);
 			} 
 			if (item.isHarvested()) {
-				eventJsonList.add(createEventJson(item, EVENT_PROCESS_HARVESTED, harvestRequest));				
+				events.add(item, getHarvestedEvent(item));				
 			}
 		}
+		toolChainBatch.flush();
 		// check if there are any failed items...
-		if ( harvester.getItemList().size() > 0 && 
-			(harvester.getItemList().size() != harvestList.size())  
-				|| (harvestList.size() != harvester.getSuccessOidList().size()) ) {
+		if ( itemList.size() > 0 && 
+			(itemList.size() != harvestList.size())  
+				|| (harvestList.size() != successOidList.size()) ) {
 			log.error("There are items that failed to harvest..");
-			for (HarvestItem item : harvester.getItemList()) {
+			harvestRequests.retainData(harvestRequest, data.toString());
+			// the item list is in the order of "data.data"
+			for (int position = 0; position < itemList.size(); position++) {
+				HarvestItem item = itemList.get(position);
 				if (!item.isHarvested()) {
-					JsonSimple jsonData = (JsonSimple) item.getData();
-					JsonObject jsonObj = new JsonObject();
-					jsonObj.put("type", type);
-					JsonObject dataObj = new JsonObject();
-					dataObj.put("data", jsonData.getJsonObject());
-					jsonObj.put("data", dataObj);
-					JsonSimple failedJson = new JsonSimple(jsonObj);
-					item.setData(failedJson);
-					log.error("Failed hid:" + item.getHid());
-					log.error("Failed request id:" + item.getHrid());
-					failedJsonMap.put(item.getHid(), item);
-					if (!item.isValid()) {
-						// failed validation...
-						log.error("Failed validation:" + failedJson.toString(true));
-						eventJsonList.add(createEventJson(item, EVENT_PROCESS_INVALID, harvestRequest));
-					}
-					if (item.isValid() && !item.isHarvested()) {
-						// exception thrown while harvesting...
-						log.error("Failed harvest:" + failedJson.toString(true));
-						eventJsonList.add(createEventJson(item, EVENT_PROCESS_FAIL, harvestRequest));
-					}
+					events.add(item, recordFailedItem(item, type, harvestRequest, position));
 				}
 			}
 			log.error(getFailedItemIds());
 		}
-		// emit the standard harvest events...
-		for (JsonObject eventJson : eventJsonList) {
-			emitHarvestEvent(eventJson);
+		events.finish();
+		metrics.recordRequest(harvestRequest);
+	}
+	
+	/**
+	 * Creates and registers the harvest request from the message headers.
+	 * 
+	 * @param json - the message
+	 * @param worker - the receiving worker, null if not received from the queue
+	 * @return the harvest request, null if the headers are invalid
+	 */
+	protected HarvestRequest createHarvestRequest(JsonSimple json, HarvestWorker worker) {
+		String messageId = worker == null ? null : worker.getMessageId();
+		String harvestRequestId = getHarvestRequestId();
+		String type = json.getString(null, "type");
+		String harvesterId = json.getString(null, "harvesterId");
+		String hostName = json.getString(null, "hostName");
+		String hostIp = json.getString(null, "hostIp");
+		log.debug("Got request to process JSON of type:" + type + ", harvesterId:" + harvesterId + ", hostName:" + hostName + ", hostIp:"+ hostIp +" . Assigning harvestRequestId:" + harvestRequestId);
+		if (type == null) {
+			logFailedRequest("No type specified, ignoring object....", json, messageId);
+			return null;
+		}
+		if (harvesterId == null) {
+			logFailedRequest("No harvester specified, ignoring object....", json, messageId);
+			return null;
+		}
+
+		HarvestRequest harvestRequest = new HarvestRequest(harvestRequestId, harvesterId, hostName, hostIp, System.currentTimeMillis());
+		harvestRequest.setType(type);
+		harvestRequest.setMessageId(messageId);
+		harvestRequests.register(harvestRequest);
+		return harvestRequest;
+	}
+	
+	/**
+	 * Returns the harvester of the request's type.
+	 * 
+	 * @param harvestRequest
+	 * @param json - the message, logged as failed if there is no harvester
+	 * @return the harvester, null if the type has no harvest config
+	 */
+	protected BaseJsonHarvester getHarvester(HarvestRequest harvestRequest, JsonSimple json) {
+		BaseJsonHarvester harvester = harvestConfigRegistry.getHarvester(harvestRequest.getType());
+		if (harvester == null) {
+			logFailedRequest("Harvest config file not found, please check the set up. Ignoring object...", json, harvestRequest.getMessageId());
+		}
+		return harvester;
+	}
+	
+	/**
+	 * Puts the item that failed to harvest into the "failed" map.
+	 * 
+	 * @param item
+	 * @param type
+	 * @param harvestRequest
+	 * @param position - position of the item in "data.data"
+	 * @return the event name of the failure
+	 */
+	protected String recordFailedItem(HarvestItem item, String type, HarvestRequest harvestRequest, int position) {
+		JsonSimple jsonData = (JsonSimple) item.getData();
+		JsonObject jsonObj = new JsonObject();
+		jsonObj.put("type", type);
+		JsonObject dataObj = new JsonObject();
+		dataObj.put("data", jsonData.getJsonObject());
+		jsonObj.put("data", dataObj);
+		JsonSimple failedJson = new JsonSimple(jsonObj);
+		item.setData(failedJson);
+		log.error("Failed hid:" + item.getHid());
+		log.error("Failed request id:" + item.getHrid());
+		boolean valid = item.isValid();
+		failureRecorder.recordItem(item, harvestRequest, position);
+		if (!valid) {
+			// failed validation...
+			log.error("Failed validation:" + failedJson.toString(true));
+			return EVENT_PROCESS_INVALID;
+		}
+		// exception thrown while harvesting...
+		log.error("Failed harvest:" + failedJson.toString(true));
+		return EVENT_PROCESS_FAIL;
+	}
+	
+	/**
+	 * Records the message as a failed request and sends a "proc_rejected" event, without harvesting it.
+	 * 
+	 * The harvest headers of a rejected message are not read, so the failure and the event carry the JMS message id.
+	 * 
+	 * @param errmsg - why the message was rejected
+	 * @param message
+	 * @param worker - the receiving worker, null if not received from the queue
+	 * @throws JMSException if the message id cannot be read
+	 * @throws MessagingException if the event could not be sent
+	 */
+	protected void rejectMessage(String errmsg, Message message, HarvestWorker worker) throws JMSException, MessagingException {
+		String messageId = message.getJMSMessageID();
+		log.error("Rejected message " + messageId + ": " + errmsg);
+		JsonObject failure = new JsonObject();
+		failure.put("messageId", messageId);
+		failure.put("error", errmsg);
+		failureRecorder.recordRequest(new JsonSimple(failure).toString(), worker == null ? null : worker.getMessageId());
+		JsonObject eventJson = new JsonObject();
+		eventJson.put("event", EVENT_PROCESS_REJECTED);
+		eventJson.put("messageId", messageId);
+		eventJson.put("error", errmsg);
+		emitHarvestEvent(eventJson, worker, HarvestMetrics.TYPE_ANY);
+	}
+	
+	/**
+	 * @param item - a harvested item
+	 * @return the event of the item, "proc_unchanged" if the item was skipped as unchanged
+	 */
+	private String getHarvestedEvent(HarvestItem item) {
+		return BaseJsonHarvester.HANDLING_TYPE_UNCHANGED.equals(item.getHandledAs()) ? EVENT_PROCESS_UNCHANGED : EVENT_PROCESS_HARVESTED;
+	}
+	
+	/**
+	 * Sends the event through the worker's producer, or the messaging services if there is no worker.
+	 */
+	private void emitHarvestEvent(JsonObject eventJson, HarvestWorker worker, String type) throws MessagingException {
+		long start = metrics.start();
+		try {
+			if (worker != null) {
+				worker.emitHarvestEvent(eventJson);
+			} else {
+				emitHarvestEvent(eventJson);
+			}
+		} catch (MessagingException e) {
+			metrics.recordFailure(type, HarvestMetrics.STAGE_EVENT, start);
+			throw e;
 		}
+		metrics.record(type, HarvestMetrics.STAGE_EVENT, start);
 	}
 	/**
 	 * Creates a event JSON.
@@ -428,42 +790,45 @@ public class JsonHarvestQueueConsumer implements GenericListener, JsonHarvestQue
 	}
 	
     /**
-     * Place objects in the toolchain for transformation. Object eventually gets indexed.
+     * To queue objects to be processed, a single object is sent as "oid" and several as "oids".
      * 
-     * @param oid Object Id
-     * @param commit Flag to commit after indexing
-     * @throws StorageException If storage is not found
-     * @throws TransformerException If transformer fail to transform the object
-     * @throws MessagingException If the object could not be queue'd
-     */
-    private void transformObject(String oid, boolean commit, JsonSimple harvestConfig)
-            throws TransformerException, StorageException, MessagingException, Exception {
-        // put in event log
-        sentMessage(oid, "modify");
-
-        // queue the object for indexing
-        queueHarvest(oid, harvestConfig, commit, toolChainEntry);
-    }
-    
-    /**
-     * To queue object to be processed
-     * 
-     * @param oid Object id
+     * @param type Harvest type
+     * @param oids Object ids
      * @param jsonFile Configuration file
      * @param commit To commit each request to Queue (true) or not (false)
      * @param queueName Name of the queue to route to
+     * @param worker Worker sending the message in its transaction, null to use the messaging services
      * @throws MessagingException if the message could not be sent
      */
-    private void queueHarvest(String oid, JsonSimple harvestConfig, boolean commit,
-            String queueName) throws MessagingException {
-        JsonObject json = harvestConfig.getJsonObject();
-		json.put("oid", oid);
+    private void queueHarvest(String type, List<String> oids, JsonSimple harvestConfig, boolean commit,
+            String queueName, HarvestWorker worker) throws MessagingException {
+        long start = metrics.start();
+        // copy, the rules config is shared between workers
+        JsonObject json = new JsonObject();
+        json.putAll(harvestConfig.getJsonObject());
+        if (oids.size() == 1) {
+        	json.put("oid", oids.get(0));
+        } else {
+        	JSONArray oidArray = new JSONArray();
+        	oidArray.addAll(oids);
+        	json.put("oids", oidArray);
+        }
 		if (commit) {
 		    json.put("commit", "true");
 		}
 		log.info("Sending message after harvest:");
 		log.info(json.toString());
-		messaging.queueMessage(queueName, json.toString());
+		try {
+			if (worker != null && worker.isTransacted()) {
+				worker.queueMessage(queueName, json.toString());
+			} else {
+				messaging.queueMessage(queueName, json.toString());
+			}
+		} catch (MessagingException e) {
+			metrics.recordFailure(type, HarvestMetrics.STAGE_QUEUE, start);
+			throw e;
+		}
+		metrics.record(type, HarvestMetrics.STAGE_QUEUE, start);
     }
     
     /**
@@ -507,7 +872,35 @@ public class JsonHarvestQueueConsumer implements GenericListener, JsonHarvestQue
 		name = config.getString(null, "config", "name");
         QUEUE_ID = name;
         EVENT_TOPIC_ID = QUEUE_ID + "_event";
+        streaming = config.getBoolean(false, "config", "streaming");
+        toolChainBatchSize = Math.max(1, config.getInteger(DEFAULT_TOOL_CHAIN_BATCH_SIZE, "config", "toolChainBatchSize"));
+        summaryEvents = EVENT_MODE_REQUEST.equalsIgnoreCase(config.getString(EVENT_MODE_ITEM, "config", "eventMode"));
+        eventChunkSize = Math.max(0, config.getInteger(0, "config", "eventChunkSize"));
+        consumerCount = config.getInteger(DEFAULT_CONSUMER_COUNT, "config", "consumers");
+        if (consumerCount < 1) {
+        	log.warn("Invalid consumer count: " + consumerCount + ", using default.");
+        	consumerCount = DEFAULT_CONSUMER_COUNT;
+        }
+        transacted = config.getBoolean(false, "config", "transacted");
+        batchSize = Math.max(1, config.getInteger(DEFAULT_BATCH_SIZE, "config", "batchSize"));
+        batchWaitMillis = Math.max(1, config.getInteger((int) DEFAULT_BATCH_WAIT_MILLIS, "config", "batchWaitMillis"));
         thread.setName(name);
+        harvestRequests = new HarvestRequestRegistry(
+        		config.getInteger(HarvestRequestRegistry.DEFAULT_MAX_SIZE, "config", "requestRegistry", "maxSize"),
+        		config.getInteger((int) (HarvestRequestRegistry.DEFAULT_TTL_MILLIS / 60000), "config", "requestRegistry", "ttlMinutes") * 60000L);
+        failureStore = new FailureStore(
+        		new File(config.getString(new File(FascinatorHome.getPath("jsonHarvester"), name + "-failures.dat").getPath(), "config", "failureStore", "file")), 
+        		config.getInteger((int) (FailureStore.DEFAULT_HEAP_BUDGET / 1024), "config", "failureStore", "heapBudgetKb") * 1024L,
+        		config.getInteger((int) (FailureStore.DEFAULT_MAX_FILE_SIZE / (1024 * 1024)), "config", "failureStore", "maxFileSizeMb") * 1024L * 1024L,
+        		config.getInteger(FailureStore.DEFAULT_MAX_ENTRIES, "config", "failureStore", "maxEntries"));
+        if (config.getBoolean(true, "config", "failureJournal", "enabled")) {
+        	failureJournal = new FailureJournal(
+        			new File(config.getString(new File(FascinatorHome.getPath("jsonHarvester"), name + "-failures.journal").getPath(), "config", "failureJournal", "file")),
+        			config.getBoolean(false, "config", "failureJournal", "sync"));
+        }
+        failureRecorder = new FailureRecorder(failureStore, failureJournal);
+        replayThreads = Math.max(1, config.getInteger(DEFAULT_REPLAY_THREADS, "config", "failureJournal", "replayThreads"));
+        replayRate = config.getInteger(DEFAULT_REPLAY_RATE, "config", "failureJournal", "replayRatePerSecond");
         File sysFile = null;
 
         try {
@@ -520,11 +913,7 @@ public class JsonHarvestQueueConsumer implements GenericListener, JsonHarvestQue
             if (indexerId == null) {
                 throw new Exception("No Indexer ID provided");
             }
-            indexer = PluginManager.getIndexer(indexerId);
-            if (indexer == null) {
-                throw new Exception("Unable to load Indexer '"+indexerId+"'");
-            }
-            indexer.init(sysFile);
+            indexer = loadIndexer(indexerId, sysFile);
 
             // Load the storage plugin
             String storageId = globalConfig.getString(
@@ -532,32 +921,17 @@ public class JsonHarvestQueueConsumer implements GenericListener, JsonHarvestQue
             if (storageId == null) {
                 throw new Exception("No Storage ID provided");
             }
-            storage = PluginManager.getStorage(storageId);
-            if (storage == null) {
-                throw new Exception("Unable to load Storage '"+storageId+"'");
+            storage = loadStorage(storageId, sysFile);
+
+            Map<String, Harvester> harvesters = loadHarvesters();
+            File harvestFilesDir = new File(globalConfig.getString(null, "portal", "harvestFiles"));
+            harvestConfigRegistry = new HarvestConfigRegistry(harvestFilesDir, harvesters, storage, indexer);
+            harvestConfigRegistry.load();
+            if (harvestFilesDir.isDirectory()) {
+            	harvestConfigRegistry.startWatching();
+            } else {
+            	log.error("Harvest files directory not found '" + harvestFilesDir.getPath() + "', harvest config changes will not be loaded.");
             }
-            storage.init(sysFile);
-
-            harvesters = PluginManager.getHarvesterPlugins();
-            log.debug("Dumping harvesters:" + harvesters.size());
-			for (String hid : harvesters.keySet()) {
-				Harvester hv = harvesters.get(hid);
-				log.debug("Harvester id: " + hid + ", Name: " +hv.getName());
-				String type = hid;
-				if (hv instanceof BaseJsonHarvester) {
-					BaseJsonHarvester harvester = (BaseJsonHarvester) hv;
-					harvester.setStorage(storage);
-					harvester.setIndexer(indexer);
-					String configFilePath = globalConfig.getString(null, "portal", "harvestFiles") + "/" + type + ".json";
-					File harvestConfigFile = new File(configFilePath);
-					if (!harvestConfigFile.exists()) {
-						log.error("Harvest config file not found '"+configFilePath+"', please check the set up.");
-						continue;
-					}
-					log.info("Using config file path:" + configFilePath);					
-					harvester.init(harvestConfigFile);					
-				}
-			}
         } catch (IOException ioe) {
             log.error("Failed to read configuration: {}", ioe.getMessage());
             throw ioe;
@@ -575,6 +949,47 @@ public class JsonHarvestQueueConsumer implements GenericListener, JsonHarvestQue
         log.debug("JsonHarvester initialised.");
 	}
 
+	/**
+	 * Loads and initialises the indexer plugin.
+	 * 
+	 * @param indexerId - "indexer.type" of the system config
+	 * @param sysFile - the system config file
+	 * @return the indexer
+	 * @throws Exception if the indexer could not be loaded
+	 */
+	protected Indexer loadIndexer(String indexerId, File sysFile) throws Exception {
+		Indexer indexer = PluginManager.getIndexer(indexerId);
+		if (indexer == null) {
+			throw new Exception("Unable to load Indexer '"+indexerId+"'");
+		}
+		indexer.init(sysFile);
+		return indexer;
+	}
+
+	/**
+	 * Loads and initialises the storage plugin.
+	 * 
+	 * @param storageId - "storage.type" of the system config
+	 * @param sysFile - the system config file
+	 * @return the storage
+	 * @throws Exception if the storage could not be loaded
+	 */
+	protected Storage loadStorage(String storageId, File sysFile) throws Exception {
+		Storage storage = PluginManager.getStorage(storageId);
+		if (storage == null) {
+			throw new Exception("Unable to load Storage '"+storageId+"'");
+		}
+		storage.init(sysFile);
+		return storage;
+	}
+
+	/**
+	 * @return the harvester plugins, keyed by id. The JSON harvesters with a harvest config are registered by id as their type.
+	 */
+	protected Map<String, Harvester> loadHarvesters() {
+		return PluginManager.getHarvesterPlugins();
+	}
+
 	public void setPriority(int newPriority) {
 		if (newPriority >= Thread.MIN_PRIORITY
                 && newPriority <= Thread.MAX_PRIORITY) {
@@ -592,32 +1007,110 @@ public class JsonHarvestQueueConsumer implements GenericListener, JsonHarvestQue
 	}
 
 	public synchronized String getFailedItemIds() {
-		return "[\"" + StringUtils.join(failedJsonMap.keySet(), "\",\"") + "\"]";
+		return "[\"" + StringUtils.join(failureStore.getItemIds(), "\",\"") + "\"]";
 	}
 
 	public synchronized String getFailedItemText(String itemId) {
-		return failedJsonMap.get(itemId).getData().toString();
+		return failureStore.getItemText(itemId);
 	}
 
 	public synchronized void setFailedItemText(String itemId, String json) {
-		HarvestItem item = failedJsonMap.get(itemId);
 		try {
-			item.setData(new JsonSimple(json));
+			if (failureStore.setItemText(itemId, json) && failureJournal != null) {
+				failureJournal.update(itemId, new JsonSimple(json));
+			}
 		} catch (IOException e) {
 			log.error("Please ensure this text is a valid JSON: " + json);
 		}
 	}
 
 	public synchronized void removeFailedItem(String itemId) {
-		failedJsonMap.remove(itemId);
+		failureStore.removeItem(itemId);
+		if (failureJournal != null) {
+			try {
+				failureJournal.remove(itemId);
+			} catch (IOException ioe) {
+				log.error("Failed to journal removal of failed item: " + itemId, ioe);
+			}
+		}
+	}
+	
+	public String getFailedItemIdsOfRequest(String hrid) {
+		List<String> hids = failureJournal == null ? new ArrayList<String>() : failureJournal.getHids(hrid);
+		return "[\"" + StringUtils.join(hids, "\",\"") + "\"]";
+	}
+	
+	public synchronized String replayFailedItems(String type, String harvesterId, long fromTime, long toTime) {
+		JsonObject result = new JsonObject();
+		if (failureJournal == null) {
+			result.put("error", "The failure journal is disabled.");
+		} else if (replay != null && replay.isRunning()) {
+			result.put("error", "A replay is in progress.");
+		} else {
+			replay = new FailureReplay(failureJournal.find(type, harvesterId, fromTime, toTime));
+			replay.start();
+			return getReplayStatus();
+		}
+		return new JsonSimple(result).toString();
+	}
+	
+	public String getReplayStatus() {
+		FailureReplay current = replay;
+		return current == null ? "{}" : new JsonSimple(current.toJson()).toString();
+	}
+	
+	/**
+	 * Harvests the failed item again, as a request of its own. 
+	 * 
+	 * The failed item is removed once harvested, if it fails again it is recorded under a new hid.
+	 * 
+	 * @param entry
+	 * @throws Exception if the item could not be harvested
+	 */
+	protected void replayFailedItem(FailureJournal.Entry entry) throws Exception {
+		JsonObject message = failureJournal.readData(entry).getJsonObject();
+		putIfAbsent(message, "type", entry.getType());
+		putIfAbsent(message, "harvesterId", entry.getHarvesterId());
+		putIfAbsent(message, "hostName", entry.getHostName());
+		putIfAbsent(message, "hostIp", entry.getHostIp());
+		processJson(new JsonSimple(message), null);
+		removeFailedItem(entry.getHid());
+	}
+	
+	private void putIfAbsent(JsonObject json, String key, String value) {
+		if (json.get(key) == null && value != null) {
+			json.put(key, value);
+		}
+	}
+	
+	/**
+	 * Opens the failure journal, restoring the failed items of the previous run into the failure store.
+	 */
+	private void openFailureJournal() {
+		if (failureJournal == null) {
+			return;
+		}
+		try {
+			failureJournal.open();
+			for (FailureJournal.Entry entry : failureJournal.getEntries()) {
+				HarvestItem item = entry.toItem();
+				item.setData(failureJournal.readData(entry));
+				failureStore.putItem(item);
+			}
+		} catch (IOException ioe) {
+			log.error("Failed to open failure journal, failed items will not survive a restart.", ioe);
+			failureJournal.close();
+			failureJournal = null;
+			failureRecorder = new FailureRecorder(failureStore, null);
+		}
 	}
 
 	public synchronized String getFailedItems() {
-		return "[" + StringUtils.join(failedJsonList, ",") + "]";
+		return "[" + StringUtils.join(failureStore.getRequests(), ",") + "]";
 	}
 
 	public synchronized void clearFailedRequests() {
-		failedJsonList.clear();
+		failureStore.clearRequests();
 	}
 	
 	/**
@@ -630,11 +1123,643 @@ public class JsonHarvestQueueConsumer implements GenericListener, JsonHarvestQue
 	}
 	
 	public synchronized void clearFailedItems() {
-		failedJsonList.clear();
-		failedJsonMap.clear();
+		failureStore.clear();
+		if (failureJournal != null) {
+			try {
+				failureJournal.clear();
+			} catch (IOException ioe) {
+				log.error("Failed to clear failure journal.", ioe);
+			}
+		}
 	}
 	
 	public synchronized void clearRequests() {
 		harvestRequests.clear();
 	}
+	
+	public String getRequestRegistryStats() {
+		return new JsonSimple(harvestRequests.toJson()).toString();
+	}
+	
+	public String getFailureStoreStats() {
+		return new JsonSimple(failureStore.toJson()).toString();
+	}
+	
+	public String getOidLockStats() {
+		JsonObject stats = new JsonObject();
+		for (Map.Entry<String, BaseJsonHarvester> entry : harvestConfigRegistry.getHarvesters().entrySet()) {
+			stats.put(entry.getKey(), entry.getValue().getOidLock().toJson());
+		}
+		return new JsonSimple(stats).toString();
+	}
+	
+	public String getObjectIndexStats() {
+		JsonObject stats = new JsonObject();
+		for (Map.Entry<String, BaseJsonHarvester> entry : harvestConfigRegistry.getHarvesters().entrySet()) {
+			ObjectIdIndex index = entry.getValue().getObjectIndex();
+			if (index != null) {
+				stats.put(entry.getKey(), index.toJson());
+			}
+		}
+		return new JsonSimple(stats).toString();
+	}
+	
+	/**
+	 * Replays failed items in parallel, at most "config.failureJournal.replayRatePerSecond" items per second.
+	 */
+	protected class FailureReplay {
+		
+		private List<FailureJournal.Entry> entries;
+		
+		private ExecutorService executor;
+		
+		private RateLimiter rateLimiter = new RateLimiter(replayRate);
+		
+		private AtomicInteger replayed = new AtomicInteger();
+		
+		private AtomicInteger failed = new AtomicInteger();
+		
+		private long started;
+		
+		public FailureReplay(List<FailureJournal.Entry> entries) {
+			this.entries = entries;
+		}
+		
+		public void start() {
+			started = System.currentTimeMillis();
+			log.info("Replaying " + entries.size() + " failed item(s) with " + replayThreads + " thread(s), at most " + replayRate + " per second");
+			executor = Executors.newFixedThreadPool(replayThreads);
+			for (final FailureJournal.Entry entry : entries) {
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							rateLimiter.acquire();
+							replayFailedItem(entry);
+							replayed.incrementAndGet();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						} catch (Exception e) {
+							failed.incrementAndGet();
+							log.error("Failed to replay item: " + entry.getHid(), e);
+						}
+					}
+				});
+			}
+			executor.shutdown();
+		}
+		
+		public boolean isRunning() {
+			return !executor.isTerminated();
+		}
+		
+		/**
+		 * Stops replaying, items in progress complete.
+		 */
+		public void cancel() {
+			executor.shutdownNow();
+		}
+		
+		/**
+		 * Waits for the items in progress to complete.
+		 * 
+		 * @param timeoutMillis
+		 * @return true if replaying stopped within the timeout
+		 */
+		public boolean awaitTermination(long timeoutMillis) {
+			try {
+				return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		
+		public JsonObject toJson() {
+			JsonObject json = new JsonObject();
+			json.put("running", Boolean.toString(isRunning()));
+			json.put("matched", entries.size());
+			json.put("replayed", replayed.get());
+			json.put("failed", failed.get());
+			json.put("started", started);
+			return json;
+		}
+	}
+	
+	/**
+	 * Sends the harvest events of a request.
+	 * 
+	 * In item mode, each item's event is sent as it is added. In request mode, items are summarised into one event 
+	 * with the counts per event and compact "hids", "oids" and "events" arrays, sent when the request finishes or 
+	 * the chunk size is reached. The last summary of a request is marked "final" and carries the request totals.
+	 */
+	protected class HarvestEventSink {
+		
+		private HarvestRequest request;
+		
+		private HarvestWorker worker;
+		
+		private JSONArray hids;
+		
+		private JSONArray oids;
+		
+		private JSONArray eventNames;
+		
+		private Map<String, Integer> counts;
+		
+		private Map<String, Integer> totals = new LinkedHashMap<String, Integer>();
+		
+		private int transformed;
+		
+		private int chunk;
+		
+		public HarvestEventSink(HarvestRequest request, HarvestWorker worker) {
+			this.request = request;
+			this.worker = worker;
+			startChunk();
+		}
+		
+		/**
+		 * Adds the event of the item.
+		 * 
+		 * @param item
+		 * @param eventName
+		 * @throws MessagingException if the event could not be sent
+		 */
+		public void add(HarvestItem item, String eventName) throws MessagingException {
+			if (!summaryEvents) {
+				emitHarvestEvent(createEventJson(item, eventName, request), worker, request.getType());
+				return;
+			}
+			hids.add(item.getHid());
+			oids.add(item.getOid());
+			eventNames.add(eventName);
+			increment(counts, eventName);
+			increment(totals, eventName);
+			if (item.isShouldBeTransformed()) {
+				transformed++;
+			}
+			if (eventChunkSize > 0 && hids.size() >= eventChunkSize) {
+				emitSummary(false);
+			}
+		}
+		
+		/**
+		 * Sends the remaining summary of the request.
+		 * 
+		 * @throws MessagingException if the event could not be sent
+		 */
+		public void finish() throws MessagingException {
+			if (summaryEvents) {
+				emitSummary(true);
+			}
+		}
+		
+		private void emitSummary(boolean last) throws MessagingException {
+			chunk++;
+			JsonObject eventJson = new JsonObject();
+			eventJson.put("event", EVENT_PROCESS_SUMMARY);
+			eventJson.put("hrid", request.getRequestId());
+			eventJson.put("type", request.getType());
+			eventJson.put("harvesterId", request.getHarvesterId());
+			eventJson.put("hostName", request.getHostName());
+			eventJson.put("hostIp",  request.getHostIp());
+			eventJson.put("chunk", chunk);
+			eventJson.put("final", Boolean.toString(last));
+			eventJson.put("count", hids.size());
+			eventJson.put("counts", toJson(counts));
+			eventJson.put("hids", hids);
+			eventJson.put("oids", oids);
+			eventJson.put("events", eventNames);
+			if (last) {
+				JsonObject totalJson = toJson(totals);
+				totalJson.put("transformed", transformed);
+				eventJson.put("totals", totalJson);
+			}
+			emitHarvestEvent(eventJson, worker, request.getType());
+			startChunk();
+		}
+		
+		private void startChunk() {
+			hids = new JSONArray();
+			oids = new JSONArray();
+			eventNames = new JSONArray();
+			counts = new LinkedHashMap<String, Integer>();
+		}
+		
+		private void increment(Map<String, Integer> countMap, String eventName) {
+			Integer count = countMap.get(eventName);
+			countMap.put(eventName, count == null ? 1 : count + 1);
+		}
+		
+		private JsonObject toJson(Map<String, Integer> countMap) {
+			JsonObject json = new JsonObject();
+			json.putAll(countMap);
+			return json;
+		}
+	}
+	
+	/**
+	 * Puts the objects of a request on the toolchain, up to "config.toolChainBatchSize" objects per message.
+	 * 
+	 * Each object is still recorded in the event log as it is added.
+	 */
+	protected class ToolChainBatch {
+		
+		private String type;
+		
+		private boolean commit;
+		
+		private JsonSimple rulesConfig;
+		
+		private HarvestWorker worker;
+		
+		private List<String> oids = new ArrayList<String>();
+		
+		public ToolChainBatch(String type, boolean commit, JsonSimple rulesConfig, HarvestWorker worker) {
+			this.type = type;
+			this.commit = commit;
+			this.rulesConfig = rulesConfig;
+			this.worker = worker;
+		}
+		
+		/**
+		 * Place the object in the toolchain for transformation. Object eventually gets indexed.
+		 * 
+		 * @param oid Object Id
+		 * @throws MessagingException If the batch could not be queue'd
+		 */
+		public void add(String oid) throws MessagingException {
+			// put in event log
+			sentMessage(oid, "modify");
+			oids.add(oid);
+			if (oids.size() >= toolChainBatchSize) {
+				flush();
+			}
+		}
+		
+		/**
+		 * Queues the objects added since the last flush.
+		 * 
+		 * @throws MessagingException If the batch could not be queue'd
+		 */
+		public void flush() throws MessagingException {
+			if (oids.isEmpty()) {
+				return;
+			}
+			// queue the objects for indexing
+			queueHarvest(type, oids, rulesConfig, commit, toolChainEntry, worker);
+			oids.clear();
+		}
+	}
+	
+	/**
+	 * Harvests the items of a message as these are parsed.
+	 * 
+	 * The harvest starts on the first item, using the message headers read so far. Items read before the 
+	 * "type" and "harvesterId" headers are held until the end of the message.
+	 * 
+	 * Harvested items are not kept, so if some items fail, the request only retains the data of the failed items.
+	 */
+	protected class StreamingHarvest implements StreamingHarvestParser.ItemListener {
+		
+		private HarvestWorker worker;
+		
+		private HarvestRequest harvestRequest;
+		
+		private BaseJsonHarvester harvester;
+		
+		private HarvestContext context;
+		
+		private ToolChainBatch toolChainBatch;
+		
+		private HarvestEventSink events;
+		
+		/** True if the message was rejected, remaining items are skipped */
+		private boolean rejected;
+		
+		/** Items read before the headers, always the first items of "data.data" */
+		private List<JsonObject> pending = new ArrayList<JsonObject>();
+		
+		/** Number of items read */
+		private int itemCount;
+		
+		/** Items that failed to harvest, retained with the request */
+		private JSONArray failedItems = new JSONArray();
+		
+		public StreamingHarvest(HarvestWorker worker) {
+			this.worker = worker;
+		}
+		
+		public void onItem(JsonObject message, JsonObject data, JsonObject item) throws Exception {
+			int position = itemCount++;
+			if (rejected) {
+				return;
+			}
+			if (context == null) {
+				if (message.get("type") == null || message.get("harvesterId") == null) {
+					pending.add(item);
+					return;
+				}
+				start(message, data, item);
+				if (rejected) {
+					return;
+				}
+			}
+			harvestItem(item, position);
+		}
+		
+		/**
+		 * Harvests the items held back waiting for the headers, and queues the remaining toolchain batch.
+		 * 
+		 * @param message - the message fields, excluding the items
+		 */
+		public void finish(JsonObject message) throws Exception {
+			if (!pending.isEmpty()) {
+				log.warn("Harvest headers found after the data, harvesting " + pending.size() + " held items.");
+				start(message, (JsonObject) message.get("data"), pending.get(0));
+				if (!rejected) {
+					for (int position = 0; position < pending.size(); position++) {
+						harvestItem(pending.get(position), position);
+					}
+				}
+				pending.clear();
+			} else if (harvestRequest == null && !rejected) {
+				// no items, an empty harvest list
+				JsonSimple json = new JsonSimple(message);
+				harvestRequest = createHarvestRequest(json, worker);
+				if (harvestRequest == null || getHarvester(harvestRequest, json) == null) {
+					return;
+				}
+				events = new HarvestEventSink(harvestRequest, worker);
+			}
+			if (toolChainBatch != null) {
+				toolChainBatch.flush();
+			}
+			if (!failedItems.isEmpty()) {
+				log.error("There are items that failed to harvest..");
+				JsonObject data = new JsonObject();
+				data.putAll((JsonObject) message.get("data"));
+				data.put("data", failedItems);
+				harvestRequests.retainData(harvestRequest, new JsonSimple(data).toString());
+			}
+			if (events != null) {
+				events.finish();
+			}
+			if (harvestRequest != null) {
+				metrics.recordRequest(harvestRequest);
+			}
+		}
+		
+		private void start(JsonObject message, JsonObject data, JsonObject firstItem) throws Exception {
+			JsonSimple json = new JsonSimple(message);
+			harvestRequest = createHarvestRequest(json, worker);
+			if (harvestRequest != null) {
+				harvester = getHarvester(harvestRequest, json);
+			}
+			if (harvester == null) {
+				rejected = true;
+				return;
+			}
+			// the harvester sees the data fields and the first item, e.g. for settings carried by the items
+			JsonObject firstData = new JsonObject();
+			firstData.putAll(data);
+			JSONArray items = new JSONArray();
+			items.add(firstItem);
+			firstData.put("data", items);
+			context = harvester.beginHarvest(new JsonSimple(firstData), harvestRequest.getType(), harvestRequest.getRequestId());
+			toolChainBatch = new ToolChainBatch(harvestRequest.getType(), harvester.getCommit(), context.getRulesConfig(), worker);
+			events = new HarvestEventSink(harvestRequest, worker);
+		}
+		
+		private void harvestItem(JsonObject itemJson, int position) throws Exception {
+			HarvestItem item = harvester.harvestItem(context, new JsonSimple(itemJson));
+			if (item.isShouldBeTransformed()) {
+				toolChainBatch.add(item.getOid());
+				log.info("JSON Object on the toolchain, oid:" + item.getOid());
+			}
+			if (item.isHarvested()) {
+				// the data is no longer needed
+				item.setData(null);
+				events.add(item, getHarvestedEvent(item));
+			} else {
+				failedItems.add(itemJson);
+				events.add(item, recordFailedItem(item, harvestRequest.getType(), harvestRequest, position));
+			}
+		}
+	}
+	
+	/**
+	 * A queue consumer with its own session, consumer and event producer. 
+	 * 
+	 * JMS delivers messages to each session's listener on a separate thread, so each worker processes one message at a time.
+	 * 
+	 * In transacted mode, the worker instead pulls batches of messages on its own thread, see receiveBatch().
+	 * 
+	 */
+	protected class HarvestWorker implements MessageListener, Runnable {
+		
+		/** JMS Session, used only by this worker */
+		private Session session;
+		
+		/** Message Consumer instance */
+		private MessageConsumer consumer;
+		
+		/** Harvest event producer */
+		private MessageProducer producer;
+		
+		/** Toolchain producer, transacted mode only */
+		private MessageProducer queueProducer;
+		
+		/** Pull loop thread, transacted mode only */
+		private Thread pullThread;
+		
+		/** Number of messages to harvest one per transaction, after a batch was rolled back */
+		private int replayCount;
+		
+		/** JMS message id of the message being harvested, transacted mode only */
+		private volatile String messageId;
+		
+		private volatile boolean running;
+		
+		public HarvestWorker(Connection connection) throws JMSException {
+			if (transacted) {
+				session = connection.createSession(true, Session.SESSION_TRANSACTED);
+				// destinations are set per message
+				queueProducer = session.createProducer(null);
+				queueProducer.setDeliveryMode(DeliveryMode.PERSISTENT);
+			} else {
+				session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			}
+			producer = session.createProducer(session.createTopic(EVENT_TOPIC_ID));
+			producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+			consumer = session.createConsumer(session.createQueue(QUEUE_ID));
+			if (!transacted) {
+				consumer.setMessageListener(this);
+			}
+		}
+		
+		/**
+		 * Starts the pull loop in transacted mode, the connection must be started.
+		 */
+		public void start() {
+			if (!transacted) {
+				return;
+			}
+			running = true;
+			pullThread = new Thread(this, name + "-batch-" + workers.indexOf(this));
+			pullThread.start();
+		}
+		
+		public void onMessage(Message message) {
+			JsonHarvestQueueConsumer.this.onMessage(message, this);
+		}
+		
+		public void run() {
+			while (running) {
+				try {
+					receiveBatch();
+				} catch (JMSException jmse) {
+					if (running) {
+						log.error("Failed to receive messages: {}", jmse.getMessage());
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Waits for a message, then receives more until there are "config.batchSize" messages or "config.batchWaitMillis" has passed, 
+		 * and harvests them in one transaction.
+		 * 
+		 * Messages that are not valid JSON are logged and dropped. Any other failure rolls back the whole batch, and the 
+		 * next messages, as many as were in the batch, are harvested one per transaction. The rolled back messages are 
+		 * redelivered first, so the messages that succeed are committed and only the failing one is redelivered again, 
+		 * according to the broker's redelivery policy.
+		 * 
+		 * @throws JMSException if receiving, committing or rolling back failed
+		 */
+		protected void receiveBatch() throws JMSException {
+			Message message = consumer.receive(batchWaitMillis);
+			if (message == null) {
+				return;
+			}
+			List<Message> batch = new ArrayList<Message>();
+			batch.add(message);
+			int maxSize = batchSize;
+			if (replayCount > 0) {
+				replayCount--;
+				maxSize = 1;
+			}
+			long deadline = System.currentTimeMillis() + batchWaitMillis;
+			while (batch.size() < maxSize) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					break;
+				}
+				message = consumer.receive(remaining);
+				if (message == null) {
+					break;
+				}
+				batch.add(message);
+			}
+			log.info("Harvesting batch of {} message(s)", batch.size());
+			try {
+				for (Message batchMessage : batch) {
+					messageId = batchMessage.getJMSMessageID();
+					try {
+						processMessage(batchMessage, this);
+					} catch (InvalidMessageException ime) {
+						// redelivery would not help
+						log.error("Failed to parse message: {}", ime.getMessage());
+					}
+				}
+				session.commit();
+			} catch (Exception ex) {
+				if (batch.size() > 1) {
+					log.error("Failed to harvest batch of " + batch.size() + " message(s), rolling back and harvesting these one at a time.", ex);
+					replayCount = batch.size();
+				} else {
+					log.error("Failed to harvest message " + messageId + ", rolling back.", ex);
+				}
+				session.rollback();
+			} finally {
+				messageId = null;
+			}
+		}
+		
+		/**
+		 * @return JMS message id of the message being harvested, null if not in transacted mode
+		 */
+		public String getMessageId() {
+			return messageId;
+		}
+		
+		public boolean isTransacted() {
+			return transacted;
+		}
+		
+		/**
+		 * Sends the message to the queue in this worker's transaction.
+		 * 
+		 * @param queueName
+		 * @param text
+		 * @throws MessagingException if the message could not be sent
+		 */
+		public void queueMessage(String queueName, String text) throws MessagingException {
+			try {
+				queueProducer.send(session.createQueue(queueName), session.createTextMessage(text));
+			} catch (JMSException e) {
+				throw new MessagingException(e);
+			}
+		}
+		
+		/**
+		 * Sends the event on the harvest topic through this worker's producer.
+		 * 
+		 * @param json
+		 * @throws MessagingException if the message could not be sent
+		 */
+		public void emitHarvestEvent(JsonObject json) throws MessagingException {
+			log.info("Sending harvest event:");
+			log.info(json.toString());
+			try {
+				producer.send(session.createTextMessage(json.toString()));
+			} catch (JMSException e) {
+				throw new MessagingException(e);
+			}
+		}
+		
+		public void close() {
+			running = false;
+			try {
+				// returns once a receive in progress completes
+				consumer.close();
+			} catch (JMSException jmse) {
+				log.warn("Failed to close consumer: {}", jmse.getMessage());
+			}
+			if (pullThread != null) {
+				try {
+					pullThread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (queueProducer != null) {
+				try {
+					queueProducer.close();
+				} catch (JMSException jmse) {
+					log.warn("Failed to close producer: {}", jmse);
+				}
+			}
+			try {
+				producer.close();
+			} catch (JMSException jmse) {
+				log.warn("Failed to close producer: {}", jmse);
+			}
+			try {
+				session.close();
+			} catch (JMSException jmse) {
+				log.warn("Failed to close consumer session: {}", jmse);
+			}
+		}
+	}
 }
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.plugins;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out permits evenly, shared by any number of threads.
+ *
+ * Each permit is given the next free time slot, and the caller sleeps until then.
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class RateLimiter {
+
+	/** Nanoseconds between permits */
+	private final long interval;
+
+	/** Time of the next free slot */
+	private long next;
+
+	/**
+	 * @param permitsPerSecond - 0 or less for no limit
+	 */
+	public RateLimiter(double permitsPerSecond) {
+		interval = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+		next = System.nanoTime();
+	}
+
+	/**
+	 * Waits for a permit.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void acquire() throws InterruptedException {
+		if (interval == 0) {
+			return;
+		}
+		long wait;
+		synchronized (this) {
+			long now = System.nanoTime();
+			long slot = Math.max(next, now);
+			next = slot + interval;
+			wait = slot - now;
+		}
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+}
@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.plugins;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.json.simple.JSONArray;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import com.googlecode.fascinator.common.JsonObject;
+
+/**
+ * Parses a harvest message, handing the items of the "data.data" array to a listener one at a time.
+ *
+ * Everything outside of the item array is kept, i.e. the message headers ("type", "harvesterId", etc.)
+ * and any other fields of the "data" object. Items are not kept once handed over, so memory use is bounded
+ * by the size of an item rather than the size of the message.
+ *
+ * If "data.data" is not an array, no items are handed over and the whole message is available from getMessage(),
+ * see hasItemArray().
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class StreamingHarvestParser implements ContentHandler {
+
+	/** Name of the message field holding the data, and of the data field holding the items */
+	private static final String DATA_KEY = "data";
+
+	/**
+	 * Receives the items of the message.
+	 */
+	public interface ItemListener {
+		/**
+		 * Called for each item of the "data.data" array, in order.
+		 *
+		 * @param message - the message fields parsed so far, excluding the items
+		 * @param data - the "data" fields parsed so far, excluding the items
+		 * @param item - the item
+		 * @throws Exception to stop parsing
+		 */
+		void onItem(JsonObject message, JsonObject data, JsonObject item) throws Exception;
+	}
+
+	/** Marks the item array on the container stack, items are not added to it */
+	private static final class ItemArray extends JSONArray {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private ItemListener listener;
+
+	/** Open objects and arrays */
+	private Deque<Object> containers = new ArrayDeque<Object>();
+
+	/** Keys of the open object entries */
+	private Deque<String> keys = new ArrayDeque<String>();
+
+	private JsonObject message;
+
+	private int itemCount;
+
+	private boolean itemArray;
+
+	/** Exception thrown by the listener */
+	private Exception listenerException;
+
+	public StreamingHarvestParser(ItemListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Parses the message, handing over items as these are read.
+	 *
+	 * @param reader
+	 * @throws IOException if the message is not valid JSON
+	 * @throws Exception thrown by the listener
+	 */
+	public void parse(Reader reader) throws Exception {
+		try {
+			new JSONParser().parse(reader, this);
+		} catch (ParseException e) {
+			throw new InvalidMessageException("Invalid JSON message: " + e.getMessage(), e);
+		}
+		if (listenerException != null) {
+			throw listenerException;
+		}
+	}
+
+	/**
+	 * @return the message fields, excluding the items if these were handed over
+	 */
+	public JsonObject getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return the number of items handed over
+	 */
+	public int getItemCount() {
+		return itemCount;
+	}
+
+	/**
+	 * @return true if "data.data" was an array, even if empty
+	 */
+	public boolean hasItemArray() {
+		return itemArray;
+	}
+
+	public void startJSON() throws ParseException, IOException {
+		containers.clear();
+		keys.clear();
+		message = null;
+		itemCount = 0;
+		itemArray = false;
+	}
+
+	public void endJSON() throws ParseException, IOException {
+	}
+
+	public boolean startObject() throws ParseException, IOException {
+		JsonObject object = new JsonObject();
+		if (containers.isEmpty()) {
+			message = object;
+		} else {
+			add(object);
+		}
+		containers.push(object);
+		return true;
+	}
+
+	public boolean endObject() throws ParseException, IOException {
+		JsonObject object = (JsonObject) containers.pop();
+		if (containers.peek() instanceof ItemArray) {
+			itemCount++;
+			try {
+				listener.onItem(message, (JsonObject) message.get(DATA_KEY), object);
+			} catch (Exception e) {
+				listenerException = e;
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean startObjectEntry(String key) throws ParseException, IOException {
+		keys.push(key);
+		return true;
+	}
+
+	public boolean endObjectEntry() throws ParseException, IOException {
+		keys.pop();
+		return true;
+	}
+
+	public boolean startArray() throws ParseException, IOException {
+		JSONArray array;
+		if (isItemArray()) {
+			array = new ItemArray();
+			itemArray = true;
+		} else {
+			array = new JSONArray();
+			add(array);
+		}
+		containers.push(array);
+		return true;
+	}
+
+	public boolean endArray() throws ParseException, IOException {
+		containers.pop();
+		return true;
+	}
+
+	public boolean primitive(Object value) throws ParseException, IOException {
+		add(value);
+		return true;
+	}
+
+	/**
+	 * @return true if the array about to start is "data.data" of the message
+	 */
+	private boolean isItemArray() {
+		if (containers.size() != 2 || keys.size() != 2) {
+			return false;
+		}
+		return containers.peek() == message.get(DATA_KEY)
+				&& DATA_KEY.equals(keys.peekFirst()) && DATA_KEY.equals(keys.peekLast());
+	}
+
+	private void add(Object value) {
+		Object parent = containers.peek();
+		if (parent instanceof ItemArray) {
+			// items are handed over on completion, primitives are not items
+			return;
+		}
+		if (parent instanceof JsonObject) {
+			((JsonObject) parent).put(keys.peek(), value);
+		} else if (parent instanceof JSONArray) {
+			((JSONArray) parent).add(value);
+		}
+	}
+}
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.harvester;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.redboxresearchdata.fascinator.testing.InMemoryStorage;
+
+import com.googlecode.fascinator.api.storage.DigitalObject;
+import com.googlecode.fascinator.common.JsonSimple;
+
+public class GenericJsonHarvesterTest {
+
+	private InMemoryStorage storage;
+
+	private GenericJsonHarvester harvester;
+
+	private HarvestContext context;
+
+	@Before
+	public void setUp() throws Exception {
+		storage = new InMemoryStorage();
+		harvester = new GenericJsonHarvester();
+		harvester.setStorage(storage.getStorage());
+		harvester.setHarvestConfig(new JsonSimple("{\"harvester\":{\"changeDetection\":true},\"default-owner\":\"admin\"}"));
+		harvester.changeDetection = true;
+		context = new HarvestContext(null, "GenericJson", "request1");
+		context.setIdField("ID");
+		context.setIdPrefix("test/");
+		context.setMainPayloadId(BaseJsonHarvester.DEFAULT_PAYLOAD_ID);
+		context.setHandlingType(BaseJsonHarvester.HANDLING_TYPE_OVERWRITE);
+		context.setRulesConfig(new JsonSimple("{\"indexer\":{\"script\":{\"type\":\"python\",\"rules\":\"rules.py\"},"
+				+ "\"params\":{},\"indexedPaths\":[\"title\"]}}"));
+		context.setRulesObject(createHarvestFile("rules", "rules.py"));
+		context.setRulesConfigObject(createHarvestFile("rulesConfig", "rules.json"));
+	}
+
+	@Test
+	public void testUnindexedChangeLeavesRenderPending() throws Exception {
+		HarvestItem item = harvest("{\"ID\":\"1\",\"title\":\"Title\",\"description\":\"first\"}");
+		assertEquals(BaseJsonHarvester.HANDLING_TYPE_OVERWRITE, item.getHandledAs());
+		assertTrue(item.isShouldBeTransformed());
+		Properties metadata = getMetadata(item);
+		assertEquals("true", metadata.getProperty("render-pending"));
+		// rendered by the toolchain
+		metadata.setProperty("render-pending", "false");
+
+		item = harvest("{\"ID\":\"1\",\"title\":\"Title\",\"description\":\"second\"}");
+		assertEquals(BaseJsonHarvester.HANDLING_TYPE_OVERWRITE, item.getHandledAs());
+		assertFalse(item.isShouldBeTransformed());
+		assertEquals("false", getMetadata(item).getProperty("render-pending"));
+
+		item = harvest("{\"ID\":\"1\",\"title\":\"Title\",\"description\":\"second\"}");
+		assertEquals(BaseJsonHarvester.HANDLING_TYPE_UNCHANGED, item.getHandledAs());
+		assertFalse(item.isShouldBeTransformed());
+		assertTrue(item.isHarvested());
+	}
+
+	@Test
+	public void testUnindexedChangeOfPendingObjectTransformed() throws Exception {
+		HarvestItem item = harvest("{\"ID\":\"1\",\"title\":\"Title\",\"description\":\"first\"}");
+		assertEquals("true", getMetadata(item).getProperty("render-pending"));
+
+		// not rendered yet
+		item = harvest("{\"ID\":\"1\",\"title\":\"Title\",\"description\":\"second\"}");
+		assertEquals(BaseJsonHarvester.HANDLING_TYPE_OVERWRITE, item.getHandledAs());
+		assertTrue(item.isShouldBeTransformed());
+		assertEquals("true", getMetadata(item).getProperty("render-pending"));
+	}
+
+	@Test
+	public void testContentHashIgnoresKeyOrderAndLayout() throws Exception {
+		String hash = harvester.getContentHash(new JsonSimple(
+				"{\"ID\":\"1\",\"dc:creator\":{\"foaf:name\":\"A\",\"foaf:mbox\":\"a@example.org\"},\"keywords\":[\"a\",\"b\"]}"));
+		assertEquals(hash, harvester.getContentHash(new JsonSimple(
+				"{\n    \"keywords\": [\"a\", \"b\"],\n    \"dc:creator\": {\"foaf:mbox\": \"a@example.org\", \"foaf:name\": \"A\"},\n    \"ID\": \"1\"\n}")));
+		assertFalse(hash.equals(harvester.getContentHash(new JsonSimple(
+				"{\"ID\":\"1\",\"dc:creator\":{\"foaf:name\":\"A\",\"foaf:mbox\":\"a@example.org\"},\"keywords\":[\"b\",\"a\"]}"))));
+	}
+
+	@Test
+	public void testIdenticalRecordSkippedOnceRendered() throws Exception {
+		String json = "{\"ID\":\"1\",\"title\":\"Title\"}";
+		HarvestItem item = harvest(json);
+		assertTrue(item.isShouldBeTransformed());
+		String contentHash = getMetadata(item).getProperty(BaseJsonHarvester.CONTENT_HASH_PROPERTY);
+		assertNotNull(contentHash);
+
+		// still pending render, so stored and transformed again
+		item = harvest(json);
+		assertEquals(BaseJsonHarvester.HANDLING_TYPE_OVERWRITE, item.getHandledAs());
+		assertTrue(item.isShouldBeTransformed());
+		assertEquals("true", getMetadata(item).getProperty("render-pending"));
+
+		getMetadata(item).setProperty("render-pending", "false");
+		item = harvest(json);
+		assertEquals(BaseJsonHarvester.HANDLING_TYPE_UNCHANGED, item.getHandledAs());
+		assertEquals(contentHash, getMetadata(item).getProperty(BaseJsonHarvester.CONTENT_HASH_PROPERTY));
+	}
+
+	@Test
+	public void testIdenticalRecordStoredWithoutChangeDetection() throws Exception {
+		harvester.changeDetection = false;
+		String json = "{\"ID\":\"1\",\"title\":\"Title\"}";
+		HarvestItem item = harvest(json);
+		getMetadata(item).setProperty("render-pending", "false");
+		item = harvest(json);
+		assertEquals(BaseJsonHarvester.HANDLING_TYPE_OVERWRITE, item.getHandledAs());
+		assertNull(getMetadata(item).getProperty(BaseJsonHarvester.CONTENT_HASH_PROPERTY));
+	}
+
+	@Test
+	public void testChangedPathsOfNestedObjects() throws Exception {
+		Set<String> changedPaths = new HashSet<String>();
+		BaseJsonHarvester.collectChangedPaths("",
+				parse("{\"title\":\"T\",\"dc:creator\":{\"foaf:name\":\"A\",\"foaf:mbox\":\"a@example.org\"}}"),
+				parse("{\"title\":\"T\",\"dc:creator\":{\"foaf:name\":\"B\"},\"dc:subject\":{\"code\":\"01\"}}"),
+				false, changedPaths);
+		// a nested object is replaced as a whole, so its missing fields are changed
+		assertEquals(paths("dc:creator.foaf:name", "dc:creator.foaf:mbox", "dc:subject"), changedPaths);
+	}
+
+	@Test
+	public void testChangedPathsOfArrays() throws Exception {
+		Set<String> changedPaths = new HashSet<String>();
+		BaseJsonHarvester.collectChangedPaths("", parse("{\"keywords\":[\"a\",\"b\"],\"ids\":[1,2]}"),
+				parse("{\"keywords\":[\"a\",\"c\"],\"ids\":[1,2]}"), false, changedPaths);
+		assertEquals(paths("keywords"), changedPaths);
+	}
+
+	@Test
+	public void testChangedPathsOfRemovedKeys() throws Exception {
+		Set<String> changedPaths = new HashSet<String>();
+		BaseJsonHarvester.collectChangedPaths("", parse("{\"title\":\"T\",\"description\":\"D\"}"),
+				parse("{\"title\":\"T\"}"), false, changedPaths);
+		// merged into the existing fields, so kept
+		assertTrue(changedPaths.isEmpty());
+		BaseJsonHarvester.collectChangedPaths("", parse("{\"title\":\"T\",\"description\":\"D\"}"),
+				parse("{\"title\":\"T\"}"), true, changedPaths);
+		assertEquals(paths("description"), changedPaths);
+	}
+
+	@Test
+	public void testIndexedChange() {
+		List<String> indexedPaths = Arrays.asList("title", "dc:creator");
+		assertTrue(harvester.isIndexedChange(paths("dc:creator.foaf:name"), indexedPaths));
+		assertTrue(harvester.isIndexedChange(paths("description", BaseJsonHarvester.ROOT_PATH), indexedPaths));
+		assertFalse(harvester.isIndexedChange(paths("description", "titles"), indexedPaths));
+		assertFalse(harvester.isIndexedChange(paths(), indexedPaths));
+	}
+
+	@Test
+	public void testIndexedChangeWithEmptyIndexedPaths() {
+		List<String> indexedPaths = Collections.emptyList();
+		assertTrue(harvester.isIndexedChange(paths("description"), indexedPaths));
+		assertTrue(harvester.isIndexedChange(paths("description"), null));
+		assertFalse(harvester.isIndexedChange(paths(), indexedPaths));
+	}
+
+	private HarvestItem harvest(String json) throws Exception {
+		HarvestItem item = harvester.harvestItem(context, new JsonSimple(json));
+		assertTrue(item.isHarvested());
+		return item;
+	}
+
+	private Properties getMetadata(HarvestItem item) throws Exception {
+		return storage.getStorage().getObject(item.getOid()).getMetadata();
+	}
+
+	private Map<?, ?> parse(String json) throws Exception {
+		return new JsonSimple(json).getJsonObject();
+	}
+
+	private Set<String> paths(String... paths) {
+		return new HashSet<String>(Arrays.asList(paths));
+	}
+
+	private DigitalObject createHarvestFile(String oid, String sourceId) throws Exception {
+		DigitalObject object = storage.getStorage().createObject(oid);
+		object.setSourceId(sourceId);
+		return object;
+	}
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.harvester;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+public class JsonInputStreamTest {
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> document() {
+		Map<String, Object> json = new LinkedHashMap<String, Object>();
+		json.put("title", "caf\u00e9 \"quoted\" \ud83d\ude00");
+		json.put("count", 5L);
+		json.put("empty", new LinkedHashMap<String, Object>());
+		JSONArray list = new JSONArray();
+		list.add("a");
+		list.add(null);
+		list.add(true);
+		list.add(new JSONArray());
+		json.put("list", list);
+		Map<String, Object> nested = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < 2000; i++) {
+			nested.put("key" + i, "value\u00fc" + i);
+		}
+		json.put("nested", nested);
+		StringBuilder longValue = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			longValue.append(i % 100 == 0 ? '\u00e9' : 'x');
+		}
+		json.put("long", longValue.toString());
+		return json;
+	}
+
+	@Test
+	public void testCompactMatchesSerializedText() throws IOException {
+		Map<String, Object> json = document();
+		String streamed = IOUtils.toString(new JsonInputStream(json, false), "UTF-8");
+		assertEquals(JSONValue.toJSONString(json), streamed);
+	}
+
+	@Test
+	public void testPrettyParsesToSameDocument() throws IOException {
+		Map<String, Object> json = document();
+		Object parsed = JSONValue.parse(new InputStreamReader(new JsonInputStream(json, true), "UTF-8"));
+		assertEquals(json, parsed);
+	}
+
+	@Test
+	public void testSortedKeys() throws IOException {
+		Map<String, Object> json = new LinkedHashMap<String, Object>();
+		Map<String, Object> nested = new LinkedHashMap<String, Object>();
+		nested.put("z", 1L);
+		nested.put("a", 2L);
+		json.put("b", nested);
+		json.put("a", "x");
+		assertEquals("{\"a\":\"x\",\"b\":{\"a\":2,\"z\":1}}", IOUtils.toString(new JsonInputStream(json, false, true), "UTF-8"));
+	}
+
+	@Test
+	public void testSingleByteReads() throws IOException {
+		Map<String, Object> json = new LinkedHashMap<String, Object>();
+		json.put("id", "\u00e9");
+		JsonInputStream in = new JsonInputStream(json, false);
+		byte[] expected = "{\"id\":\"\u00e9\"}".getBytes("UTF-8");
+		for (byte b : expected) {
+			assertEquals(b & 0xff, in.read());
+		}
+		assertEquals(-1, in.read());
+		assertEquals(-1, in.read(new byte[8], 0, 8));
+	}
+}
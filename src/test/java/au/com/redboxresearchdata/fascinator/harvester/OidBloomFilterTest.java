@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.harvester;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+public class OidBloomFilterTest {
+
+	@Test
+	public void testAddedIdsArePresent() {
+		OidBloomFilter filter = new OidBloomFilter(1000, 0.01);
+		for (int i = 0; i < 1000; i++) {
+			filter.put(DigestUtils.md5Hex("record" + i));
+		}
+		filter.put("not-an-md5");
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(filter.mightContain(DigestUtils.md5Hex("record" + i)));
+		}
+		assertTrue(filter.mightContain("not-an-md5"));
+		assertEquals(1001, filter.getAdded());
+	}
+
+	@Test
+	public void testFalsePositiveRate() {
+		OidBloomFilter filter = new OidBloomFilter(10000, 0.01);
+		for (int i = 0; i < 10000; i++) {
+			filter.put(DigestUtils.md5Hex("record" + i));
+		}
+		int falsePositives = 0;
+		for (int i = 0; i < 10000; i++) {
+			if (filter.mightContain(DigestUtils.md5Hex("other" + i))) {
+				falsePositives++;
+			}
+		}
+		assertTrue("False positives: " + falsePositives, falsePositives < 200);
+	}
+
+	@Test
+	public void testSnapshot() throws IOException {
+		OidBloomFilter filter = new OidBloomFilter(100, 0.01);
+		filter.put(DigestUtils.md5Hex("record1"));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		filter.writeTo(new DataOutputStream(bytes));
+		OidBloomFilter read = OidBloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertTrue(read.mightContain(DigestUtils.md5Hex("record1")));
+		assertEquals(filter.getBitCount(), read.getBitCount());
+		assertEquals(filter.getHashCount(), read.getHashCount());
+		assertEquals(1, read.getAdded());
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalidSnapshot() throws IOException {
+		OidBloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 })));
+	}
+}
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.harvester;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class StripedOidLockTest {
+
+	@Test
+	public void testStripeCountRoundedToPowerOfTwo() {
+		assertEquals(64, new StripedOidLock(50).getStripeCount());
+		assertEquals(1, new StripedOidLock(1).getStripeCount());
+	}
+
+	@Test
+	public void testUncontendedLock() {
+		StripedOidLock lock = new StripedOidLock();
+		lock.lock("oid1");
+		lock.unlock("oid1");
+		lock.lock("oid2");
+		lock.unlock("oid2");
+		assertEquals(2, lock.getAcquired());
+		assertEquals(0, lock.getContended());
+	}
+
+	@Test
+	public void testSameOidIsSerialized() throws Exception {
+		final StripedOidLock lock = new StripedOidLock();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch acquired = new CountDownLatch(1);
+		lock.lock("oid1");
+		Thread other = new Thread(new Runnable() {
+			public void run() {
+				started.countDown();
+				lock.lock("oid1");
+				acquired.countDown();
+				lock.unlock("oid1");
+			}
+		});
+		other.start();
+		started.await();
+		assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+		lock.unlock("oid1");
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		other.join();
+		assertEquals(1, lock.getContended());
+	}
+}
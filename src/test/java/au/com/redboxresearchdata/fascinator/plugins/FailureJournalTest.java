@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.redboxresearchdata.fascinator.harvester.HarvestItem;
+import au.com.redboxresearchdata.fascinator.harvester.HarvestRequest;
+
+import com.googlecode.fascinator.common.JsonSimple;
+
+public class FailureJournalTest {
+
+	private File file;
+
+	private FailureJournal journal;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("failures", ".journal");
+		journal = new FailureJournal(file, false);
+		journal.open();
+	}
+
+	@After
+	public void tearDown() {
+		journal.close();
+		file.delete();
+	}
+
+	@Test
+	public void testCompactedWhileOpen() throws Exception {
+		journal.append(createItem("hid1", "first"), createRequest());
+		journal.append(createItem("hid2", "second"), createRequest());
+		for (int i = 0; i < FailureJournal.MIN_COMPACT_RECORDS; i++) {
+			journal.update("hid1", createData("update " + i));
+		}
+		journal.remove("hid2");
+		assertTrue(FileUtils.readLines(file, "UTF-8").size() < FailureJournal.MIN_COMPACT_RECORDS);
+		assertEquals(1, journal.size());
+		String last = "update " + (FailureJournal.MIN_COMPACT_RECORDS - 1);
+		assertTrue(journal.readData(journal.get("hid1")).toString().contains(last));
+
+		// the compacted journal is still appended to, and read on open
+		journal.append(createItem("hid3", "third"), createRequest());
+		journal.close();
+		journal = new FailureJournal(file, false);
+		journal.open();
+		assertEquals(2, journal.size());
+		assertTrue(journal.readData(journal.get("hid1")).toString().contains(last));
+		assertTrue(journal.readData(journal.get("hid3")).toString().contains("third"));
+	}
+
+	@Test
+	public void testReadDataOfResolvedItem() throws Exception {
+		journal.append(createItem("hid1", "first"), createRequest());
+		FailureJournal.Entry entry = journal.get("hid1");
+		journal.update("hid1", createData("fixed"));
+		assertTrue(journal.readData(entry).toString().contains("fixed"));
+		journal.remove("hid1");
+		try {
+			journal.readData(entry);
+			fail("Resolved item read");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private HarvestRequest createRequest() {
+		HarvestRequest request = new HarvestRequest("hrid", "harvester", "localhost", "127.0.0.1", System.currentTimeMillis());
+		request.setType("type");
+		return request;
+	}
+
+	private HarvestItem createItem(String hid, String title) throws Exception {
+		HarvestItem item = new HarvestItem("oid-" + hid, createData(title), false, false, false);
+		item.setHid(hid);
+		item.setHrid("hrid");
+		return item;
+	}
+
+	private JsonSimple createData(String title) throws Exception {
+		return new JsonSimple("{\"type\":\"type\",\"data\":{\"data\":[{\"title\":\"" + title + "\"}]}}");
+	}
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.redboxresearchdata.fascinator.harvester.HarvestItem;
+import au.com.redboxresearchdata.fascinator.harvester.HarvestRequest;
+
+import com.googlecode.fascinator.common.JsonSimple;
+
+public class FailureRecorderTest {
+
+	private File storeFile;
+
+	private File journalFile;
+
+	private FailureStore store;
+
+	private FailureJournal journal;
+
+	private FailureRecorder recorder;
+
+	@Before
+	public void setUp() throws Exception {
+		storeFile = File.createTempFile("failures", ".dat");
+		journalFile = File.createTempFile("failures", ".journal");
+		store = new FailureStore(storeFile, FailureStore.DEFAULT_HEAP_BUDGET, 1024 * 1024);
+		store.open();
+		journal = new FailureJournal(journalFile, false);
+		journal.open();
+		recorder = new FailureRecorder(store, journal);
+	}
+
+	@After
+	public void tearDown() {
+		journal.close();
+		store.close();
+		storeFile.delete();
+		journalFile.delete();
+	}
+
+	@Test
+	public void testRedeliveredMessageRecordedOnce() throws Exception {
+		// each harvest of the message creates new harvest item ids
+		assertTrue(recorder.recordItem(createItem(), createRequest("ID:message-1"), 0));
+		assertFalse(recorder.recordItem(createItem(), createRequest("ID:message-1"), 0));
+		assertEquals(1, store.getItemCount());
+		assertEquals(1, journal.size());
+	}
+
+	@Test
+	public void testItemsOfMessageRecordedByPosition() throws Exception {
+		assertTrue(recorder.recordItem(createItem(), createRequest("ID:message-1"), 0));
+		assertTrue(recorder.recordItem(createItem(), createRequest("ID:message-1"), 1));
+		assertTrue(recorder.recordItem(createItem(), createRequest("ID:message-2"), 0));
+		assertEquals(3, store.getItemCount());
+		assertEquals(3, journal.size());
+	}
+
+	@Test
+	public void testFailuresWithoutMessageIdAlwaysRecorded() throws Exception {
+		assertTrue(recorder.recordItem(createItem(), createRequest(null), 0));
+		assertTrue(recorder.recordItem(createItem(), createRequest(null), 0));
+		assertEquals(2, store.getItemCount());
+		assertEquals(2, journal.size());
+	}
+
+	@Test
+	public void testRedeliveredRequestRecordedOnce() throws Exception {
+		assertTrue(recorder.recordRequest("{\"error\":\"No harvester\"}", "ID:message-1"));
+		assertFalse(recorder.recordRequest("{\"error\":\"No harvester\"}", "ID:message-1"));
+		// the items of the message are remembered separately
+		assertTrue(recorder.recordItem(createItem(), createRequest("ID:message-1"), 0));
+		assertEquals(1, store.getRequests().size());
+	}
+
+	@Test
+	public void testOldestFailuresForgotten() throws Exception {
+		recorder = new FailureRecorder(store, journal, 1);
+		assertTrue(recorder.recordItem(createItem(), createRequest("ID:message-1"), 0));
+		assertTrue(recorder.recordItem(createItem(), createRequest("ID:message-2"), 0));
+		assertTrue(recorder.recordItem(createItem(), createRequest("ID:message-1"), 0));
+	}
+
+	private HarvestRequest createRequest(String messageId) {
+		HarvestRequest request = new HarvestRequest(UUID.randomUUID().toString(), "harvester", "localhost", "127.0.0.1", System.currentTimeMillis());
+		request.setType("type");
+		request.setMessageId(messageId);
+		return request;
+	}
+
+	private HarvestItem createItem() throws Exception {
+		HarvestItem item = new HarvestItem("oid", new JsonSimple("{\"type\":\"type\",\"data\":{\"data\":[{\"title\":\"failed\"}]}}"), false, false, false);
+		item.setHid(UUID.randomUUID().toString());
+		return item;
+	}
+}
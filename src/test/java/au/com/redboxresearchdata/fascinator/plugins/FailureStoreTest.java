@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.redboxresearchdata.fascinator.harvester.HarvestItem;
+
+import com.googlecode.fascinator.common.JsonSimple;
+
+public class FailureStoreTest {
+
+	private File file;
+
+	private FailureStore store;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("failures", ".dat");
+		// room for about one entry in heap
+		store = new FailureStore(file, 300, 1024 * 1024);
+		store.open();
+	}
+
+	@After
+	public void tearDown() {
+		store.close();
+		file.delete();
+	}
+
+	@Test
+	public void testOlderItemsAreSpilled() throws Exception {
+		store.putItem(createItem("hid1", "{\"title\":\"first\"}"));
+		store.putItem(createItem("hid2", "{\"title\":\"second\"}"));
+		store.putItem(createItem("hid3", "{\"title\":\"third\"}"));
+		assertEquals(3, store.getItemCount());
+		assertEquals(2L, store.toJson().get("spilled"));
+		assertTrue(store.getItem("hid1").getData().toString().contains("first"));
+		assertTrue(store.getItemText("hid2").contains("second"));
+		assertTrue(store.getItemText("hid3").contains("third"));
+	}
+
+	@Test
+	public void testSetTextOfSpilledItem() throws Exception {
+		store.putItem(createItem("hid1", "{\"title\":\"first\"}"));
+		store.putItem(createItem("hid2", "{\"title\":\"second\"}"));
+		assertTrue(store.setItemText("hid1", "{\"title\":\"fixed\"}"));
+		assertTrue(store.getItemText("hid1").contains("fixed"));
+		assertFalse(store.setItemText("missing", "{}"));
+	}
+
+	@Test
+	public void testRemoveAndClear() throws Exception {
+		store.putItem(createItem("hid1", "{\"title\":\"first\"}"));
+		store.addRequest("{\"type\":null}");
+		store.removeItem("hid1");
+		assertNull(store.getItemText("hid1"));
+		assertEquals(1, store.getRequests().size());
+		store.clear();
+		assertEquals(0, store.getItemIds().size());
+		assertEquals(0, store.getRequests().size());
+	}
+
+	@Test
+	public void testOldestEntriesEvicted() throws Exception {
+		store.close();
+		store = new FailureStore(file, FailureStore.DEFAULT_HEAP_BUDGET, 1024 * 1024, 2);
+		store.open();
+		store.putItem(createItem("hid1", "{\"title\":\"first\"}"));
+		store.addRequest("{\"type\":null}");
+		store.putItem(createItem("hid2", "{\"title\":\"second\"}"));
+		assertEquals(1, store.getItemCount());
+		assertNull(store.getItemText("hid1"));
+		assertEquals(1, store.getRequests().size());
+		// replacing an item keeps its age
+		store.putItem(createItem("hid2", "{\"title\":\"replaced\"}"));
+		store.putItem(createItem("hid3", "{\"title\":\"third\"}"));
+		assertEquals(0, store.getRequests().size());
+		assertEquals(2, store.getItemCount());
+		assertTrue(store.getItemText("hid2").contains("replaced"));
+		assertEquals(2L, store.toJson().get("evicted"));
+	}
+
+	private HarvestItem createItem(String hid, String json) throws Exception {
+		HarvestItem item = new HarvestItem("oid-" + hid, new JsonSimple(json), false, false, false);
+		item.setHid(hid);
+		return item;
+	}
+}
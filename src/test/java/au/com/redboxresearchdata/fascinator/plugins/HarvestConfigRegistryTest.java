@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.redboxresearchdata.fascinator.harvester.BaseJsonHarvester;
+import au.com.redboxresearchdata.fascinator.harvester.HarvestContext;
+import au.com.redboxresearchdata.fascinator.testing.InMemoryIndexer;
+import au.com.redboxresearchdata.fascinator.testing.InMemoryStorage;
+
+import com.googlecode.fascinator.api.PluginException;
+import com.googlecode.fascinator.api.harvester.Harvester;
+import com.googlecode.fascinator.api.harvester.HarvesterException;
+import com.googlecode.fascinator.common.JsonSimple;
+
+public class HarvestConfigRegistryTest {
+
+	private static final String TYPE = "TestJson";
+
+	private File dir;
+
+	private File configFile;
+
+	private HarvestConfigRegistry registry;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = File.createTempFile("harvest", "");
+		dir.delete();
+		dir.mkdirs();
+		configFile = new File(dir, TYPE + ".json");
+		writeConfig("{\"harvester\":{\"recordIDPrefix\":\"first/\"}}", 1000L);
+		Map<String, Harvester> plugins = new HashMap<String, Harvester>();
+		plugins.put(TYPE, new ConfigOnlyHarvester());
+		registry = new HarvestConfigRegistry(dir, plugins, new InMemoryStorage().getStorage(), new InMemoryIndexer().getIndexer());
+		registry.load();
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteQuietly(dir);
+	}
+
+	@Test
+	public void testReloadOnModify() throws Exception {
+		ConfigOnlyHarvester first = getHarvester();
+		registry.refresh(TYPE);
+		assertSame(first, getHarvester());
+
+		writeConfig("{\"harvester\":{\"recordIDPrefix\":\"second/\"}}", 2000L);
+		registry.refresh(TYPE);
+		ConfigOnlyHarvester second = getHarvester();
+		assertNotSame(first, second);
+		assertEquals("second/", second.getHarvestConfig().getString(null, "harvester", "recordIDPrefix"));
+		assertSame(first.getOidLock(), second.getOidLock());
+		assertTrue(first.isShutdown());
+		assertFalse(second.isShutdown());
+	}
+
+	@Test
+	public void testUnregisterOnDelete() throws Exception {
+		ConfigOnlyHarvester first = getHarvester();
+		assertTrue(configFile.delete());
+		registry.refresh(TYPE);
+		assertNull(registry.getHarvester(TYPE));
+		assertNull(registry.getHarvestConfigFile(TYPE));
+		assertTrue(registry.getHarvesters().isEmpty());
+		assertTrue(first.isShutdown());
+	}
+
+	@Test
+	public void testKeepHarvesterWhenInitFails() throws Exception {
+		ConfigOnlyHarvester first = getHarvester();
+		writeConfig("{\"harvester\":{\"recordIDPrefix\":\"second/\"}, \"fail\":true}", 2000L);
+		registry.refresh(TYPE);
+		assertSame(first, getHarvester());
+		assertFalse(first.isShutdown());
+
+		writeConfig("{\"harvester\":{\"recordIDPrefix\":\"third/\"}}", 3000L);
+		registry.refresh(TYPE);
+		assertEquals("third/", getHarvester().getHarvestConfig().getString(null, "harvester", "recordIDPrefix"));
+		assertTrue(first.isShutdown());
+	}
+
+	private ConfigOnlyHarvester getHarvester() {
+		return (ConfigOnlyHarvester) registry.getHarvester(TYPE);
+	}
+
+	private void writeConfig(String json, long lastModified) throws IOException {
+		FileUtils.writeStringToFile(configFile, json, "UTF-8");
+		configFile.setLastModified(lastModified);
+	}
+
+	/**
+	 * Reads the harvest config without messaging or rules, failing if the config has "fail" set.
+	 */
+	public static class ConfigOnlyHarvester extends BaseJsonHarvester {
+
+		private boolean shutdown;
+
+		public ConfigOnlyHarvester() {
+			super(TYPE, "Config only harvester");
+		}
+
+		@Override
+		public void init() throws HarvesterException {
+			try {
+				harvestConfig = new JsonSimple(configFile);
+			} catch (IOException e) {
+				throw new HarvesterException(e);
+			}
+			if (harvestConfig.getBoolean(false, "fail")) {
+				throw new HarvesterException("Invalid config: " + configFile.getPath());
+			}
+		}
+
+		@Override
+		public void shutdown() throws PluginException {
+			shutdown = true;
+		}
+
+		public boolean isShutdown() {
+			return shutdown;
+		}
+
+		@Override
+		protected boolean isValidJson(HarvestContext context, JsonSimple json) {
+			return true;
+		}
+	}
+}
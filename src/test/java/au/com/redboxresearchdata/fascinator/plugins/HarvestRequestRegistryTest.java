@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.plugins;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import au.com.redboxresearchdata.fascinator.harvester.HarvestRequest;
+
+public class HarvestRequestRegistryTest {
+
+	@Test
+	public void testOldestRequestsEvictedBeyondMaxSize() {
+		HarvestRequestRegistry registry = new HarvestRequestRegistry(2, HarvestRequestRegistry.DEFAULT_TTL_MILLIS);
+		long now = System.currentTimeMillis();
+		registry.register(createRequest("req1", now));
+		registry.register(createRequest("req2", now));
+		registry.register(createRequest("req3", now));
+		assertEquals(2, registry.size());
+		assertNull(registry.get("req1"));
+		assertNotNull(registry.get("req2"));
+		assertNotNull(registry.get("req3"));
+		assertEquals(1L, registry.toJson().get("evicted"));
+	}
+
+	@Test
+	public void testExpiredRequestsEvicted() {
+		HarvestRequestRegistry registry = new HarvestRequestRegistry(10, 1000L);
+		long now = System.currentTimeMillis();
+		registry.register(createRequest("old", now - 5000L));
+		assertEquals(0, registry.size());
+		registry.register(createRequest("recent", now - 500L));
+		registry.register(createRequest("new", now));
+		assertEquals(2, registry.size());
+		assertNull(registry.get("old"));
+		assertNotNull(registry.get("recent"));
+	}
+
+	@Test
+	public void testRetainData() {
+		HarvestRequestRegistry registry = new HarvestRequestRegistry(1, HarvestRequestRegistry.DEFAULT_TTL_MILLIS);
+		HarvestRequest failed = createRequest("failed", System.currentTimeMillis());
+		registry.register(failed);
+		registry.retainData(failed, "{\"data\":[]}");
+		assertEquals("{\"data\":[]}", registry.get("failed").getData());
+		assertEquals(1, registry.toJson().get("withData"));
+
+		HarvestRequest next = createRequest("next", System.currentTimeMillis());
+		registry.register(next);
+		registry.retainData(failed, "{\"data\":[1]}");
+		assertEquals("{\"data\":[]}", failed.getData());
+		assertNull(registry.get("failed"));
+		assertEquals(0, registry.toJson().get("withData"));
+	}
+
+	private HarvestRequest createRequest(String requestId, long received) {
+		return new HarvestRequest(requestId, "TestJson", "localhost", "127.0.0.1", received);
+	}
+}
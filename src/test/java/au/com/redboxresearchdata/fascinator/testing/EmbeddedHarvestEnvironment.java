@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.testing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.com.redboxresearchdata.fascinator.harvester.DatasetJsonHarvester;
+import au.com.redboxresearchdata.fascinator.harvester.GenericJsonHarvester;
+import au.com.redboxresearchdata.fascinator.harvester.MintJsonHarvester;
+import au.com.redboxresearchdata.fascinator.plugins.JsonHarvestQueueConsumer;
+
+import com.googlecode.fascinator.api.harvester.Harvester;
+import com.googlecode.fascinator.api.indexer.Indexer;
+import com.googlecode.fascinator.api.storage.Storage;
+import com.googlecode.fascinator.common.JsonObject;
+import com.googlecode.fascinator.common.JsonSimple;
+import com.googlecode.fascinator.common.JsonSimpleConfig;
+
+/**
+ * Runs the queue consumer and the JSON harvesters without a Fascinator install.
+ *
+ * Sets up a temporary Fascinator home with a system config, harvest configs and rules for the "GenericJson", "DatasetJson"
+ * and "MintJson" types, starts an embedded non-persistent broker reachable at "vm://{brokerName}", and starts the consumer
+ * against in-memory storage and indexer.
+ *
+ * The Fascinator home is a system property, so only one environment can run per JVM.
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class EmbeddedHarvestEnvironment {
+
+	private static Logger log = LoggerFactory.getLogger(EmbeddedHarvestEnvironment.class);
+
+	public static final String TYPE_GENERIC = "GenericJson",
+							   TYPE_DATASET = "DatasetJson",
+							   TYPE_MINT = "MintJson";
+
+	/** Rules config named in the records of Mint harvests */
+	public static final String MINT_RULES_CONFIG = "Parties_People";
+
+	private static final String BROKER_NAME = "jsonHarvesterLoadTest";
+
+	private static final String QUEUE_NAME = "jsonHarvester";
+
+	private static final String TOOL_CHAIN_QUEUE = "loadTestToolChain";
+
+	private final File home;
+
+	private final InMemoryStorage storage = new InMemoryStorage();
+
+	private final InMemoryIndexer indexer = new InMemoryIndexer();
+
+	private BrokerService broker;
+
+	private JsonHarvestQueueConsumer consumer;
+
+	/**
+	 * @param home - the temporary Fascinator home, deleted on stop
+	 */
+	public EmbeddedHarvestEnvironment(File home) {
+		this.home = home;
+	}
+
+	/**
+	 * Writes the configs, and starts the broker and the consumer.
+	 *
+	 * @param listenerConfig - the "config" of the consumer, "name" is set by the environment
+	 * @throws Exception if the environment failed to start
+	 */
+	@SuppressWarnings("unchecked")
+	public void start(JsonObject listenerConfig) throws Exception {
+		System.setProperty("fascinator.home", home.getAbsolutePath());
+		File harvestFiles = new File(home, "harvest");
+		writeConfigs(harvestFiles);
+
+		broker = new BrokerService();
+		broker.setBrokerName(BROKER_NAME);
+		broker.setPersistent(false);
+		broker.setUseJmx(false);
+		broker.start();
+		broker.waitUntilStarted();
+		log.info("Embedded broker started: " + getBrokerUrl());
+
+		File listenerConfigFile = new File(home, "jsonHarvester.json");
+		listenerConfig.put("name", QUEUE_NAME);
+		JsonObject listener = new JsonObject();
+		listener.put("config", listenerConfig);
+		FileUtils.writeStringToFile(listenerConfigFile, new JsonSimple(listener).toString(true), "UTF-8");
+		consumer = new InMemoryConsumer();
+		consumer.init(new JsonSimpleConfig(listenerConfigFile));
+		consumer.start();
+	}
+
+	/**
+	 * Stops the consumer and the broker, and deletes the Fascinator home.
+	 */
+	public void stop() {
+		if (consumer != null) {
+			try {
+				consumer.stop();
+			} catch (Exception e) {
+				log.warn("Failed to stop consumer: {}", e.getMessage());
+			}
+		}
+		if (broker != null) {
+			try {
+				broker.stop();
+			} catch (Exception e) {
+				log.warn("Failed to stop broker: {}", e.getMessage());
+			}
+		}
+		FileUtils.deleteQuietly(home);
+	}
+
+	/**
+	 * @return URL of the embedded broker, for clients in the same JVM
+	 */
+	public String getBrokerUrl() {
+		return "vm://" + BROKER_NAME + "?create=false";
+	}
+
+	/**
+	 * @return the queue the consumer harvests from
+	 */
+	public String getQueueName() {
+		return QUEUE_NAME;
+	}
+
+	/**
+	 * @return the topic the consumer sends harvest events to
+	 */
+	public String getEventTopic() {
+		return QUEUE_NAME + "_event";
+	}
+
+	/**
+	 * @return the queue harvested objects are sent to for transformation and indexing
+	 */
+	public String getToolChainQueue() {
+		return TOOL_CHAIN_QUEUE;
+	}
+
+	public InMemoryStorage getStorage() {
+		return storage;
+	}
+
+	public InMemoryIndexer getIndexer() {
+		return indexer;
+	}
+
+	public JsonHarvestQueueConsumer getConsumer() {
+		return consumer;
+	}
+
+	private void writeConfigs(File harvestFiles) throws IOException {
+		File rulesDir = new File(harvestFiles, "rules");
+		String rulesConfig = "{\"indexer\":{\"script\":{\"type\":\"python\",\"rules\":\"loadtest-rules.py\"}}}";
+		FileUtils.writeStringToFile(new File(rulesDir, "loadtest-rules.py"), "# load test rules", "UTF-8");
+		FileUtils.writeStringToFile(new File(rulesDir, "loadtest.json"), rulesConfig, "UTF-8");
+		FileUtils.writeStringToFile(new File(rulesDir, MINT_RULES_CONFIG + ".json"), rulesConfig, "UTF-8");
+		String rulesConfigPath = path(new File(rulesDir, "loadtest.json"));
+
+		FileUtils.writeStringToFile(new File(home, "system-config.json"),
+				"{\"messaging\":{\"url\":\"" + getBrokerUrl() + "\",\"toolChainQueue\":\"" + TOOL_CHAIN_QUEUE + "\"},"
+				+ "\"portal\":{\"harvestFiles\":\"" + path(harvestFiles) + "\"},"
+				+ "\"indexer\":{\"type\":\"memory\"},\"storage\":{\"type\":\"memory\"}}", "UTF-8");
+		for (String type : new String[] { TYPE_GENERIC, TYPE_DATASET }) {
+			FileUtils.writeStringToFile(new File(harvestFiles, type + ".json"),
+					"{\"harvester\":{\"idField\":\"ID\",\"recordIDPrefix\":\"loadtest/" + type.toLowerCase() + "/\","
+					+ "\"handlingType\":\"overwrite\",\"rulesConfig\":\"" + rulesConfigPath + "\"},"
+					+ "\"default-owner\":\"admin\"," + rulesConfig.substring(1), "UTF-8");
+		}
+		FileUtils.writeStringToFile(new File(harvestFiles, TYPE_MINT + ".json"),
+				"{\"harvester\":{\"recordIDPrefix\":\"loadtest/mint/\",\"handlingType\":\"overwrite\","
+				+ "\"rulesConfig\":\"" + rulesConfigPath + "\"}}", "UTF-8");
+	}
+
+	private static String path(File file) {
+		return file.getAbsolutePath().replace("\\", "/");
+	}
+
+	/**
+	 * The queue consumer, using the in-memory storage and indexer and the JSON harvesters instead of the configured plugins.
+	 */
+	private class InMemoryConsumer extends JsonHarvestQueueConsumer {
+
+		@Override
+		protected Indexer loadIndexer(String indexerId, File sysFile) {
+			return indexer.getIndexer();
+		}
+
+		@Override
+		protected Storage loadStorage(String storageId, File sysFile) {
+			return storage.getStorage();
+		}
+
+		@Override
+		protected Map<String, Harvester> loadHarvesters() {
+			Map<String, Harvester> harvesters = new HashMap<String, Harvester>();
+			harvesters.put(TYPE_GENERIC, new GenericJsonHarvester());
+			harvesters.put(TYPE_DATASET, new DatasetJsonHarvester());
+			harvesters.put(TYPE_MINT, new MintJsonHarvester());
+			return harvesters;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.testing;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Base of the in-memory implementations of the Fascinator plugin interfaces.
+ *
+ * The implementations are dynamic proxies, so only the methods used by the harvesters need handling:
+ * plain "setX"/"getX"/"isX" properties are kept in a map, and other unhandled methods do nothing
+ * and return null, false or 0.
+ *
+ * @author Shilo Banihit
+ *
+ */
+public abstract class InMemoryHandler implements InvocationHandler {
+
+	/** Returned by handle() for methods it does not implement */
+	protected static final Object UNHANDLED = new Object();
+
+	private final Map<String, Object> properties = new ConcurrentHashMap<String, Object>();
+
+	/**
+	 * Creates the proxy of the interface, backed by the handler.
+	 *
+	 * @param type
+	 * @param handler
+	 * @return the proxy
+	 */
+	protected static <T> T proxy(Class<T> type, InMemoryHandler handler) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if (method.getDeclaringClass() == Object.class) {
+			if ("equals".equals(name)) {
+				return proxy == args[0];
+			}
+			if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			}
+			return toString();
+		}
+		Object result;
+		try {
+			result = handle(name, args == null ? new Object[0] : args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+		if (result != UNHANDLED) {
+			return result;
+		}
+		if (name.startsWith("set") && args != null && args.length == 1) {
+			if (args[0] == null) {
+				properties.remove(name.substring(3));
+			} else {
+				properties.put(name.substring(3), args[0]);
+			}
+			return null;
+		}
+		String property = name.startsWith("get") ? name.substring(3) : (name.startsWith("is") ? name.substring(2) : null);
+		if (property != null && (args == null || args.length == 0) && properties.containsKey(property)) {
+			return properties.get(property);
+		}
+		return defaultValue(method.getReturnType());
+	}
+
+	/**
+	 * Handles the method call.
+	 *
+	 * @param name - method name
+	 * @param args - arguments, empty if none
+	 * @return the result, UNHANDLED to fall back to the property or default behaviour
+	 * @throws Exception thrown to the caller
+	 */
+	protected abstract Object handle(String name, Object[] args) throws Exception;
+
+	private static Object defaultValue(Class<?> type) {
+		if (!type.isPrimitive() || type == void.class) {
+			return null;
+		}
+		if (type == boolean.class) {
+			return Boolean.FALSE;
+		}
+		if (type == char.class) {
+			return Character.valueOf((char) 0);
+		}
+		if (type == long.class) {
+			return 0L;
+		}
+		if (type == float.class) {
+			return 0f;
+		}
+		if (type == double.class) {
+			return 0d;
+		}
+		if (type == byte.class) {
+			return (byte) 0;
+		}
+		if (type == short.class) {
+			return (short) 0;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.testing;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.googlecode.fascinator.api.indexer.Indexer;
+
+/**
+ * Indexer that only counts its calls, for benchmarks and load tests.
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class InMemoryIndexer extends InMemoryHandler {
+
+	private final ConcurrentMap<String, AtomicLong> calls = new ConcurrentHashMap<String, AtomicLong>();
+
+	private final Indexer indexer = proxy(Indexer.class, this);
+
+	/**
+	 * @return the indexer plugin
+	 */
+	public Indexer getIndexer() {
+		return indexer;
+	}
+
+	/**
+	 * @param method - indexer method name, e.g. "remove"
+	 * @return number of calls of the method
+	 */
+	public long getCalls(String method) {
+		AtomicLong count = calls.get(method);
+		return count == null ? 0 : count.get();
+	}
+
+	@Override
+	protected Object handle(String name, Object[] args) throws Exception {
+		AtomicLong count = calls.get(name);
+		if (count == null) {
+			AtomicLong created = new AtomicLong();
+			count = calls.putIfAbsent(name, created);
+			if (count == null) {
+				count = created;
+			}
+		}
+		count.incrementAndGet();
+		if ("getId".equals(name)) {
+			return "memory";
+		}
+		if ("getName".equals(name)) {
+			return "In-memory Indexer";
+		}
+		return UNHANDLED;
+	}
+}
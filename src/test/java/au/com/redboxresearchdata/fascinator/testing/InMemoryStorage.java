@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.testing;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.googlecode.fascinator.api.storage.DigitalObject;
+import com.googlecode.fascinator.api.storage.Payload;
+import com.googlecode.fascinator.api.storage.Storage;
+import com.googlecode.fascinator.api.storage.StorageException;
+
+/**
+ * Storage holding its objects and payloads in memory, for benchmarks and load tests.
+ *
+ * Behaves as the file system storage does for the calls the harvesters make: getting a missing object or payload,
+ * creating an existing one, or updating a missing payload throws a StorageException.
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class InMemoryStorage extends InMemoryHandler {
+
+	private final ConcurrentMap<String, DigitalObject> objects = new ConcurrentHashMap<String, DigitalObject>();
+
+	private final Storage storage = proxy(Storage.class, this);
+
+	/**
+	 * @return the storage plugin
+	 */
+	public Storage getStorage() {
+		return storage;
+	}
+
+	/**
+	 * @return number of objects stored
+	 */
+	public int size() {
+		return objects.size();
+	}
+
+	/**
+	 * @return total size of the stored payloads, in bytes
+	 */
+	public long getPayloadBytes() {
+		long bytes = 0;
+		for (DigitalObject object : objects.values()) {
+			for (String pid : object.getPayloadIdList()) {
+				try {
+					bytes += ((PayloadHandler) java.lang.reflect.Proxy.getInvocationHandler(object.getPayload(pid))).content.length;
+				} catch (StorageException e) {
+					// removed concurrently
+				}
+			}
+		}
+		return bytes;
+	}
+
+	public void clear() {
+		objects.clear();
+	}
+
+	@Override
+	protected Object handle(String name, Object[] args) throws Exception {
+		if ("getId".equals(name)) {
+			return "memory";
+		}
+		if ("getName".equals(name)) {
+			return "In-memory Storage";
+		}
+		if ("createObject".equals(name)) {
+			String oid = (String) args[0];
+			DigitalObject object = proxy(DigitalObject.class, new ObjectHandler(oid));
+			if (objects.putIfAbsent(oid, object) != null) {
+				throw new StorageException("Object already exists: " + oid);
+			}
+			return object;
+		}
+		if ("getObject".equals(name)) {
+			DigitalObject object = objects.get(args[0]);
+			if (object == null) {
+				throw new StorageException("Object not found: " + args[0]);
+			}
+			return object;
+		}
+		if ("removeObject".equals(name)) {
+			if (objects.remove(args[0]) == null) {
+				throw new StorageException("Object not found: " + args[0]);
+			}
+			return null;
+		}
+		if ("getObjectIdList".equals(name)) {
+			return new HashSet<String>(objects.keySet());
+		}
+		return UNHANDLED;
+	}
+
+	/**
+	 * A digital object, its metadata and payloads.
+	 */
+	private static class ObjectHandler extends InMemoryHandler {
+
+		private String oid;
+
+		private final Properties metadata = new Properties();
+
+		private final Map<String, Payload> payloads = new LinkedHashMap<String, Payload>();
+
+		ObjectHandler(String oid) {
+			this.oid = oid;
+		}
+
+		@Override
+		protected synchronized Object handle(String name, Object[] args) throws Exception {
+			if ("getId".equals(name)) {
+				return oid;
+			}
+			if ("setId".equals(name)) {
+				oid = (String) args[0];
+				return null;
+			}
+			if ("getMetadata".equals(name)) {
+				return metadata;
+			}
+			if ("getPayloadIdList".equals(name)) {
+				return new LinkedHashSet<String>(payloads.keySet());
+			}
+			if ("getPayload".equals(name)) {
+				return getPayload((String) args[0]);
+			}
+			if ("createStoredPayload".equals(name) || "createLinkedPayload".equals(name)) {
+				String pid = (String) args[0];
+				if (payloads.containsKey(pid)) {
+					throw new StorageException("Payload already exists: " + pid);
+				}
+				boolean linked = "createLinkedPayload".equals(name);
+				byte[] content = linked ? FileUtils.readFileToByteArray(new File((String) args[1])) : read((InputStream) args[1]);
+				Payload payload = proxy(Payload.class, new PayloadHandler(pid, content, linked));
+				payloads.put(pid, payload);
+				return payload;
+			}
+			if ("updatePayload".equals(name)) {
+				Payload payload = getPayload((String) args[0]);
+				((PayloadHandler) java.lang.reflect.Proxy.getInvocationHandler(payload)).content = read((InputStream) args[1]);
+				return payload;
+			}
+			if ("removePayload".equals(name)) {
+				if (payloads.remove(args[0]) == null) {
+					throw new StorageException("Payload not found: " + args[0]);
+				}
+				return null;
+			}
+			return UNHANDLED;
+		}
+
+		private Payload getPayload(String pid) throws StorageException {
+			Payload payload = payloads.get(pid);
+			if (payload == null) {
+				throw new StorageException("Payload not found: " + oid + "/" + pid);
+			}
+			return payload;
+		}
+
+		private static byte[] read(InputStream in) throws StorageException {
+			try {
+				return IOUtils.toByteArray(in);
+			} catch (Exception e) {
+				throw new StorageException(e);
+			} finally {
+				IOUtils.closeQuietly(in);
+			}
+		}
+	}
+
+	/**
+	 * A payload and its content.
+	 */
+	private static class PayloadHandler extends InMemoryHandler {
+
+		private String pid;
+
+		private volatile byte[] content;
+
+		private final boolean linked;
+
+		PayloadHandler(String pid, byte[] content, boolean linked) {
+			this.pid = pid;
+			this.content = content;
+			this.linked = linked;
+		}
+
+		@Override
+		protected Object handle(String name, Object[] args) throws Exception {
+			if ("getId".equals(name)) {
+				return pid;
+			}
+			if ("setId".equals(name)) {
+				pid = (String) args[0];
+				return null;
+			}
+			if ("open".equals(name)) {
+				return new ByteArrayInputStream(content);
+			}
+			if ("isLinked".equals(name)) {
+				return linked;
+			}
+			if ("size".equals(name)) {
+				return (long) content.length;
+			}
+			return UNHANDLED;
+		}
+	}
+}
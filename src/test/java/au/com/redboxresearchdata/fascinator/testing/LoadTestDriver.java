@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.testing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+
+import au.com.redboxresearchdata.fascinator.harvester.HarvestMetrics;
+import au.com.redboxresearchdata.fascinator.plugins.RateLimiter;
+
+import com.googlecode.fascinator.common.JsonObject;
+import com.googlecode.fascinator.common.JsonSimple;
+
+/**
+ * Load test of the full harvest path: queue, consumer, harvester, storage, toolchain queue and event topic.
+ *
+ * Sends synthetic harvest requests to the consumer of an {@link EmbeddedHarvestEnvironment} at a fixed rate, and
+ * reports the throughput, the latency from sending a request until its last event is received, the heap usage, and
+ * the per-stage metrics of the pipeline. Arguments are "name=value" pairs:
+ *
+ * <ul>
+ * <li>workload - "generic", "dataset" or "mint", defaults to "generic"</li>
+ * <li>requests - number of requests, defaults to 1000</li>
+ * <li>items - records per request, defaults to 10</li>
+ * <li>fields - fields per record, defaults to 20</li>
+ * <li>attachments - attachments per record, defaults to 1, and at least 1 for "dataset"</li>
+ * <li>rate - requests sent per second, 0 for as fast as possible, defaults to 0</li>
+ * <li>distinct - number of distinct records, later requests update these, 0 for all new records, defaults to 0</li>
+ * <li>timeoutSeconds - time to wait for the last events, defaults to 300</li>
+ * <li>config.* - consumer config, e.g. "config.consumers=4" or "config.eventMode=request"</li>
+ * </ul>
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class LoadTestDriver {
+
+	private static final String[] QUANTILES = { "p50", "p95", "p99" };
+
+	private final Map<String, String> args;
+
+	private final EmbeddedHarvestEnvironment environment;
+
+	/** Send times of the requests in progress, keyed by harvester id */
+	private final Map<String, Long> sent = new ConcurrentHashMap<String, Long>();
+
+	/** Events received of the requests in progress, keyed by harvester id */
+	private final Map<String, AtomicInteger> received = new ConcurrentHashMap<String, AtomicInteger>();
+
+	/** Latencies of completed requests, in milliseconds */
+	private final List<Long> latencies = new ArrayList<Long>();
+
+	private final AtomicLong events = new AtomicLong();
+
+	private final AtomicLong failedEvents = new AtomicLong();
+
+	private final AtomicLong toolChainMessages = new AtomicLong();
+
+	private final AtomicLong maxHeapUsed = new AtomicLong();
+
+	private CountDownLatch completed;
+
+	private int items;
+
+	public LoadTestDriver(Map<String, String> args, EmbeddedHarvestEnvironment environment) {
+		this.args = args;
+		this.environment = environment;
+	}
+
+	public static void main(String[] argv) throws Exception {
+		Map<String, String> args = new HashMap<String, String>();
+		for (String arg : argv) {
+			int split = arg.indexOf('=');
+			if (split < 1) {
+				System.err.println("Ignoring argument, expected name=value: " + arg);
+				continue;
+			}
+			args.put(arg.substring(0, split), arg.substring(split + 1));
+		}
+		File home = new File(System.getProperty("java.io.tmpdir"), "jsonHarvesterLoadTest-" + System.currentTimeMillis());
+		EmbeddedHarvestEnvironment environment = new EmbeddedHarvestEnvironment(home);
+		try {
+			environment.start(listenerConfig(args));
+			new LoadTestDriver(args, environment).run(System.out);
+		} finally {
+			environment.stop();
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Sends the requests, waits for their events and prints the report.
+	 *
+	 * @param out
+	 * @throws Exception if the test could not be run
+	 */
+	public void run(PrintStream out) throws Exception {
+		String workload = arg("workload", "generic");
+		int requests = intArg("requests", 1000);
+		items = intArg("items", 10);
+		int fields = intArg("fields", 20);
+		int attachments = intArg("attachments", 1);
+		int distinct = intArg("distinct", 0);
+		String type = EmbeddedHarvestEnvironment.TYPE_GENERIC;
+		String extra = null;
+		if ("dataset".equals(workload)) {
+			type = EmbeddedHarvestEnvironment.TYPE_DATASET;
+			attachments = Math.max(1, attachments);
+		} else if ("mint".equals(workload)) {
+			type = EmbeddedHarvestEnvironment.TYPE_MINT;
+			extra = "rulesConfig";
+		}
+		SyntheticRecords records = new SyntheticRecords(fields, 32, attachments, 42);
+		RateLimiter rateLimiter = new RateLimiter(intArg("rate", 0));
+		completed = new CountDownLatch(requests);
+
+		Connection connection = new ActiveMQConnectionFactory(environment.getBrokerUrl()).createConnection();
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		try {
+			listen(connection);
+			connection.start();
+			Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			MessageProducer producer = session.createProducer(session.createQueue(environment.getQueueName()));
+			producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+
+			out.println("Sending " + requests + " " + type + " requests of " + items + " items...");
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < requests; i++) {
+				rateLimiter.acquire();
+				int firstId = distinct > 0 ? (i * items) % distinct : i * items;
+				String harvesterId = "loadtest-" + i;
+				TextMessage message = session.createTextMessage(records.harvestMessage(type, harvesterId, firstId, items, extra,
+						EmbeddedHarvestEnvironment.MINT_RULES_CONFIG));
+				received.put(harvesterId, new AtomicInteger());
+				sent.put(harvesterId, System.nanoTime());
+				producer.send(message);
+				sampleHeap(memory);
+			}
+			long sendMillis = System.currentTimeMillis() - start;
+			long timeout = TimeUnit.SECONDS.toMillis(intArg("timeoutSeconds", 300));
+			while (!completed.await(1, TimeUnit.SECONDS)) {
+				sampleHeap(memory);
+				if (System.currentTimeMillis() - start > sendMillis + timeout) {
+					out.println("Timed out, " + completed.getCount() + " requests incomplete.");
+					break;
+				}
+			}
+			long totalMillis = Math.max(1, System.currentTimeMillis() - start);
+			sampleHeap(memory);
+			report(out, requests - completed.getCount(), sendMillis, totalMillis, memory);
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Receives the harvest events and drains the queues the consumer sends to.
+	 */
+	private void listen(Connection connection) throws JMSException {
+		Session eventSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		eventSession.createConsumer(eventSession.createTopic(environment.getEventTopic())).setMessageListener(new MessageListener() {
+			public void onMessage(Message message) {
+				onEvent(message);
+			}
+		});
+		Session toolChainSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		toolChainSession.createConsumer(toolChainSession.createQueue(environment.getToolChainQueue())).setMessageListener(new MessageListener() {
+			public void onMessage(Message message) {
+				toolChainMessages.incrementAndGet();
+			}
+		});
+		// nothing else reads these, so the broker would eventually block the consumer
+		for (String queue : new String[] { "subscriber", "houseKeeping" }) {
+			Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			session.createConsumer(session.createQueue(queue)).setMessageListener(new MessageListener() {
+				public void onMessage(Message message) {
+				}
+			});
+		}
+	}
+
+	private void onEvent(Message message) {
+		try {
+			JsonSimple event = new JsonSimple(((TextMessage) message).getText());
+			String harvesterId = event.getString(null, "harvesterId");
+			AtomicInteger count = harvesterId == null ? null : received.get(harvesterId);
+			if (count == null) {
+				return;
+			}
+			boolean done;
+			if ("proc_summary".equals(event.getString(null, "event"))) {
+				events.addAndGet(event.getInteger(0, "count"));
+				done = "true".equals(event.getString(null, "final"));
+			} else {
+				events.incrementAndGet();
+				String eventName = event.getString(null, "event");
+				if (!"proc_harvested".equals(eventName) && !"proc_unchanged".equals(eventName)) {
+					failedEvents.incrementAndGet();
+				}
+				done = count.incrementAndGet() >= items;
+			}
+			if (done && received.remove(harvesterId) != null) {
+				long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sent.remove(harvesterId));
+				synchronized (latencies) {
+					latencies.add(latency);
+				}
+				completed.countDown();
+			}
+		} catch (Exception e) {
+			System.err.println("Failed to read event: " + e.getMessage());
+		}
+	}
+
+	private void sampleHeap(MemoryMXBean memory) {
+		long used = memory.getHeapMemoryUsage().getUsed();
+		long max = maxHeapUsed.get();
+		while (used > max && !maxHeapUsed.compareAndSet(max, used)) {
+			max = maxHeapUsed.get();
+		}
+	}
+
+	private void report(PrintStream out, long completedRequests, long sendMillis, long totalMillis, MemoryMXBean memory) throws IOException {
+		long[] sorted;
+		synchronized (latencies) {
+			sorted = new long[latencies.size()];
+			for (int i = 0; i < sorted.length; i++) {
+				sorted[i] = latencies.get(i);
+			}
+		}
+		Arrays.sort(sorted);
+		out.println("Completed requests: " + completedRequests + ", sent in " + sendMillis + "ms, completed in " + totalMillis + "ms");
+		out.println(String.format("Throughput: %.1f requests/s, %.1f items/s", completedRequests * 1000.0 / totalMillis,
+				events.get() * 1000.0 / totalMillis));
+		out.println("Events: " + events.get() + ", not harvested: " + failedEvents.get() + ", toolchain messages: " + toolChainMessages.get());
+		if (sorted.length > 0) {
+			StringBuilder line = new StringBuilder("Request latency:");
+			double[] quantiles = { 0.5, 0.95, 0.99 };
+			for (int i = 0; i < quantiles.length; i++) {
+				int index = Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * quantiles[i]) - 1);
+				line.append(" ").append(QUANTILES[i]).append("=").append(sorted[Math.max(0, index)]).append("ms");
+			}
+			line.append(" max=").append(sorted[sorted.length - 1]).append("ms");
+			out.println(line);
+		}
+		memory.gc();
+		out.println(String.format("Heap: max used %.1fMB, used after gc %.1fMB, objects stored: %d, payload bytes: %d",
+				maxHeapUsed.get() / 1048576.0, memory.getHeapMemoryUsage().getUsed() / 1048576.0,
+				environment.getStorage().size(), environment.getStorage().getPayloadBytes()));
+		out.println("Stage metrics:");
+		out.println(new JsonSimple(HarvestMetrics.getInstance().getMetrics()).toString(true));
+	}
+
+	/**
+	 * @return the "config.*" arguments as the consumer config
+	 */
+	@SuppressWarnings("unchecked")
+	private static JsonObject listenerConfig(Map<String, String> args) {
+		JsonObject config = new JsonObject();
+		for (Map.Entry<String, String> arg : args.entrySet()) {
+			if (!arg.getKey().startsWith("config.")) {
+				continue;
+			}
+			String value = arg.getValue();
+			Object parsed = value;
+			if ("true".equals(value) || "false".equals(value)) {
+				parsed = Boolean.valueOf(value);
+			} else if (value.matches("-?\\d+")) {
+				parsed = Long.valueOf(value);
+			}
+			// nested settings, e.g. "config.failureStore.heapBudgetKb"
+			String[] path = arg.getKey().substring("config.".length()).split("\\.");
+			JsonObject parent = config;
+			for (int i = 0; i < path.length - 1; i++) {
+				Object child = parent.get(path[i]);
+				if (!(child instanceof JsonObject)) {
+					child = new JsonObject();
+					parent.put(path[i], child);
+				}
+				parent = (JsonObject) child;
+			}
+			parent.put(path[path.length - 1], parsed);
+		}
+		return config;
+	}
+
+	private String arg(String name, String defaultValue) {
+		String value = args.get(name);
+		return value == null ? defaultValue : value;
+	}
+
+	private int intArg(String name, int defaultValue) {
+		return Integer.parseInt(arg(name, Integer.toString(defaultValue)));
+	}
+}
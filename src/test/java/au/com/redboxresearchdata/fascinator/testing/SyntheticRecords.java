@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (C) 2014 Queensland Cyber Infrastructure Foundation (http://www.qcif.edu.au/)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ ******************************************************************************/
+package au.com.redboxresearchdata.fascinator.testing;
+
+import java.util.Random;
+
+import org.json.simple.JSONArray;
+
+import com.googlecode.fascinator.common.JsonObject;
+import com.googlecode.fascinator.common.JsonSimple;
+
+/**
+ * Generates harvest messages of synthetic records, for benchmarks and load tests.
+ *
+ * Records have an "ID" and "owner", a number of string fields, and optionally attachments with their destinations.
+ * Generation is seeded, so runs with the same settings harvest the same records.
+ *
+ * @author Shilo Banihit
+ *
+ */
+public class SyntheticRecords {
+
+	private final int fields;
+
+	private final int fieldLength;
+
+	private final int attachments;
+
+	private final Random random;
+
+	/**
+	 * @param fields - number of string fields of each record
+	 * @param fieldLength - length of each field value
+	 * @param attachments - number of attachments of each record
+	 * @param seed
+	 */
+	public SyntheticRecords(int fields, int fieldLength, int attachments, long seed) {
+		this.fields = fields;
+		this.fieldLength = fieldLength;
+		this.attachments = attachments;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Creates a record.
+	 *
+	 * @param id - value of the "ID" field
+	 * @return the record
+	 */
+	@SuppressWarnings("unchecked")
+	public JsonObject record(String id) {
+		JsonObject record = new JsonObject();
+		record.put("ID", id);
+		record.put("owner", "admin");
+		for (int i = 0; i < fields; i++) {
+			record.put("field_" + i, value());
+		}
+		if (attachments > 0) {
+			JSONArray attachmentList = new JSONArray();
+			JsonObject destinations = new JsonObject();
+			for (int i = 0; i < attachments; i++) {
+				String name = "attachment_" + i;
+				JsonObject attachment = new JsonObject();
+				attachment.put("oid", "<oid>");
+				attachment.put("title", value());
+				attachment.put("description", value());
+				record.put(name, attachment);
+				attachmentList.add(name);
+				JSONArray destination = new JSONArray();
+				destination.add(name + ".tfpackage");
+				destinations.put(name, destination);
+			}
+			record.put("attachmentList", attachmentList);
+			record.put("attachmentDestination", destinations);
+		}
+		return record;
+	}
+
+	/**
+	 * Creates the "data" of a harvest message, as handed to the harvesters: an object holding the "data" array of records.
+	 *
+	 * @param firstId - id of the first record, the rest are numbered from it
+	 * @param count - number of records
+	 * @param extra - extra field added to each record, e.g. "rulesConfig", null for none
+	 * @param extraValue
+	 * @return the harvest data
+	 */
+	@SuppressWarnings("unchecked")
+	public JsonSimple harvestData(int firstId, int count, String extra, String extraValue) {
+		JSONArray records = new JSONArray();
+		for (int i = 0; i < count; i++) {
+			JsonObject record = record(Integer.toString(firstId + i));
+			if (extra != null) {
+				record.put(extra, extraValue);
+			}
+			records.add(record);
+		}
+		JsonObject data = new JsonObject();
+		data.put("data", records);
+		return new JsonSimple(data);
+	}
+
+	/**
+	 * Creates a harvest message, as sent to the queue consumer.
+	 *
+	 * @param type - harvest type
+	 * @param harvesterId
+	 * @param firstId - id of the first record
+	 * @param count - number of records
+	 * @param extra - extra field added to each record, e.g. "rulesConfig", null for none
+	 * @param extraValue
+	 * @return the message text
+	 */
+	@SuppressWarnings("unchecked")
+	public String harvestMessage(String type, String harvesterId, int firstId, int count, String extra, String extraValue) {
+		JsonObject message = new JsonObject();
+		message.put("type", type);
+		message.put("harvesterId", harvesterId);
+		message.put("hostName", "localhost");
+		message.put("hostIp", "127.0.0.1");
+		message.put("data", harvestData(firstId, count, extra, extraValue).getJsonObject());
+		return new JsonSimple(message).toString();
+	}
+
+	private String value() {
+		char[] chars = new char[fieldLength];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = (char) ('a' + random.nextInt(26));
+		}
+		return new String(chars);
+	}
+}